@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.benchmarks;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.spi.ISessionsStore.ClientTopicCouple;
+import io.moquette.spi.impl.subscriptions.Subscription;
+import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of matching and updating the subscriptions tree.
+ *
+ * The tree is generated from a fixed seed, so every run works on the same subscriptions and topics.
+ * The updates are measured in single shots of {@link #MUTATIONS_PER_SHOT} operations, the tree is restored
+ * before each iteration so that every shot starts from the same tree.
+ *
+ * @author andrea
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SubscriptionsStoreBenchmark {
+
+    static final int MUTATIONS_PER_SHOT = 1000;
+    private static final long SEED = 20160101L;
+    private static final int TOPICS = 4096;
+    private static final int MUTATOR_FILTERS = 1024;
+
+    @Param({"1000", "100000", "10000000"})
+    int treeSize;
+
+    //number of levels of the topics
+    @Param({"3", "6"})
+    int depth;
+
+    //fraction of the subscriptions having a + or # wildcard
+    @Param({"0.0", "0.1", "0.5"})
+    double wildcardRatio;
+
+    //distinct tokens on every level of the tree
+    @Param({"10", "100"})
+    int fanOut;
+
+    //threads adding and removing subscriptions in background while the benchmark is measured
+    @Param({"0", "4"})
+    int mutatorThreads;
+
+    @Param({"COPY_ON_WRITE", "CONCURRENT"})
+    SubscriptionsStore.TreeType treeType;
+
+    private SubscriptionsStore store;
+    private Topic[] topics;
+    //subscriptions in the tree, removed by the remove benchmarks
+    private List<Subscription> churn;
+    //subscriptions not in the tree, added by the add benchmark
+    private List<Subscription> fresh;
+    private List<ClientTopicCouple> freshCouples;
+    private final AtomicInteger mutationCursor = new AtomicInteger();
+    private final List<Thread> mutators = new ArrayList<>();
+    private volatile boolean running;
+
+    @State(Scope.Thread)
+    public static class TopicCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SEED);
+        store = new SubscriptionsStore(0, treeType);
+
+        List<Subscription> initial = new ArrayList<>(treeSize);
+        churn = new ArrayList<>(MUTATIONS_PER_SHOT);
+        for (int i = 0; i < treeSize; i++) {
+            String clientID = i < MUTATIONS_PER_SHOT ? "churn_" + i : "client_" + i;
+            Subscription sub = new Subscription(clientID, randomFilter(random), AbstractMessage.QOSType.MOST_ONE);
+            initial.add(sub);
+            if (i < MUTATIONS_PER_SHOT) {
+                churn.add(sub);
+            }
+        }
+        store.addAll(initial);
+
+        fresh = new ArrayList<>(MUTATIONS_PER_SHOT);
+        freshCouples = new ArrayList<>(MUTATIONS_PER_SHOT);
+        for (int i = 0; i < MUTATIONS_PER_SHOT; i++) {
+            Subscription sub = new Subscription("fresh_" + i, randomFilter(random), AbstractMessage.QOSType.MOST_ONE);
+            fresh.add(sub);
+            freshCouples.add(sub.asClientTopicCouple());
+        }
+
+        topics = new Topic[TOPICS];
+        for (int i = 0; i < TOPICS; i++) {
+            topics[i] = new Topic(randomTopic(random));
+        }
+
+        running = true;
+        for (int t = 0; t < mutatorThreads; t++) {
+            final String clientID = "mutator_" + t;
+            final List<String> filters = new ArrayList<>(MUTATOR_FILTERS);
+            for (int i = 0; i < MUTATOR_FILTERS; i++) {
+                filters.add(randomFilter(random));
+            }
+            Thread mutator = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int i = 0;
+                    while (running) {
+                        String filter = filters.get(i++ % MUTATOR_FILTERS);
+                        store.add(new Subscription(clientID, filter, AbstractMessage.QOSType.MOST_ONE));
+                        store.removeSubscription(filter, clientID);
+                    }
+                }
+            }, clientID);
+            mutator.setDaemon(true);
+            mutator.start();
+            mutators.add(mutator);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread mutator : mutators) {
+            mutator.join();
+        }
+        mutators.clear();
+    }
+
+    /**
+     * Put back the removed subscriptions and drop the added ones.
+     * */
+    @Setup(Level.Iteration)
+    public void restoreTree() {
+        store.batchUpdate(churn, freshCouples);
+        mutationCursor.set(0);
+    }
+
+    private String randomFilter(Random random) {
+        int wildcardLevel = random.nextDouble() < wildcardRatio ? random.nextInt(depth) : -1;
+        boolean multiWildcard = random.nextBoolean();
+        StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < depth; level++) {
+            if (level > 0) {
+                sb.append('/');
+            }
+            if (level == wildcardLevel) {
+                if (multiWildcard) {
+                    sb.append('#');
+                    break;
+                }
+                sb.append('+');
+            } else {
+                sb.append("level").append(level).append('_').append(random.nextInt(fanOut));
+            }
+        }
+        return sb.toString();
+    }
+
+    private String randomTopic(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < depth; level++) {
+            if (level > 0) {
+                sb.append('/');
+            }
+            sb.append("level").append(level).append('_').append(random.nextInt(fanOut));
+        }
+        return sb.toString();
+    }
+
+    private int nextMutation() {
+        return mutationCursor.getAndIncrement() % MUTATIONS_PER_SHOT;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Subscription> matches(TopicCursor cursor) {
+        return store.matches(topics[cursor.next++ & (TOPICS - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = MUTATIONS_PER_SHOT)
+    @Measurement(iterations = 10, batchSize = MUTATIONS_PER_SHOT)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add() {
+        store.add(fresh.get(nextMutation()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = MUTATIONS_PER_SHOT)
+    @Measurement(iterations = 10, batchSize = MUTATIONS_PER_SHOT)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void removeSubscription() {
+        Subscription sub = churn.get(nextMutation());
+        store.removeSubscription(sub.getTopicFilter(), sub.getClientId());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = MUTATIONS_PER_SHOT)
+    @Measurement(iterations = 10, batchSize = MUTATIONS_PER_SHOT)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void removeForClient() {
+        store.removeForClient(churn.get(nextMutation()).getClientId());
+    }
+}
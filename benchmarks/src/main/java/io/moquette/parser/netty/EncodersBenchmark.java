@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.parser.proto.messages.ConnectMessage;
+import io.moquette.parser.proto.messages.PublishMessage;
+import io.moquette.parser.proto.messages.SubscribeMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the encoders, that write straight into the output buffer, with the previous encoders that
+ * collected the message in temporary buffers. The previous encoders are copied here as the baseline.
+ *
+ * It's in the package of the encoders to reach them, run it with "-prof gc" to compare also the allocation rate.
+ *
+ * @author andrea
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncodersBenchmark {
+
+    @Param({"16", "1024"})
+    int payloadSize;
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private final PublishEncoder publishEncoder = new PublishEncoder();
+    private final SubscribeEncoder subscribeEncoder = new SubscribeEncoder();
+    private final ConnectEncoder connectEncoder = new ConnectEncoder();
+    private PublishMessage publish;
+    private SubscribeMessage subscribe;
+    private ConnectMessage connect;
+    private ByteBuf out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        publish = new PublishMessage();
+        publish.setQos(AbstractMessage.QOSType.LEAST_ONE);
+        publish.setMessageID(1);
+        publish.setTopicName("sensors/building_1/floor_2/temperature");
+        publish.setPayload(ByteBuffer.wrap(new byte[payloadSize]));
+
+        subscribe = new SubscribeMessage();
+        subscribe.setMessageID(1);
+        subscribe.addSubscription(new SubscribeMessage.Couple((byte) 1, "sensors/building_1/+/temperature"));
+        subscribe.addSubscription(new SubscribeMessage.Couple((byte) 0, "alarms/#"));
+
+        connect = new ConnectMessage();
+        connect.setCleanSession(true);
+        connect.setKeepAlive(60);
+        connect.setClientID("benchmark_client");
+        connect.setWillFlag(true);
+        connect.setWillTopic("clients/benchmark_client/status");
+        connect.setWillMessage("offline".getBytes());
+        connect.setUserFlag(true);
+        connect.setUsername("user");
+        connect.setPasswordFlag(true);
+        connect.setPassword("password".getBytes());
+
+        out = allocator.buffer(payloadSize + 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        out.release();
+    }
+
+    @Benchmark
+    public ByteBuf publish() {
+        out.clear();
+        publishEncoder.encode(null, publish, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf publishWithTemporaryBuffers() {
+        out.clear();
+        encodePublishWithTemporaryBuffers(allocator, publish, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf subscribe() {
+        out.clear();
+        subscribeEncoder.encode(null, subscribe, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf subscribeWithTemporaryBuffers() {
+        out.clear();
+        encodeSubscribeWithTemporaryBuffers(allocator, subscribe, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf connect() {
+        out.clear();
+        connectEncoder.encode(null, connect, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf connectWithTemporaryBuffers() {
+        out.clear();
+        encodeConnectWithTemporaryBuffers(allocator, connect, out);
+        return out;
+    }
+
+    static void encodePublishWithTemporaryBuffers(ByteBufAllocator alloc, PublishMessage message, ByteBuf out) {
+        ByteBuf variableHeaderBuff = alloc.buffer(2);
+        ByteBuf buff = null;
+        try {
+            variableHeaderBuff.writeBytes(Utils.encodeString(message.getTopicName()));
+            if (message.getQos() == AbstractMessage.QOSType.LEAST_ONE ||
+                message.getQos() == AbstractMessage.QOSType.EXACTLY_ONCE) {
+                variableHeaderBuff.writeShort(message.getMessageID());
+            }
+            //a duplicate so that every invocation writes the whole payload
+            variableHeaderBuff.writeBytes(message.getPayload().duplicate());
+            int variableHeaderSize = variableHeaderBuff.readableBytes();
+            byte flags = Utils.encodeFlags(message);
+            buff = alloc.buffer(2 + variableHeaderSize);
+            buff.writeByte(AbstractMessage.PUBLISH << 4 | flags);
+            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
+            buff.writeBytes(variableHeaderBuff);
+            out.writeBytes(buff);
+        } finally {
+            variableHeaderBuff.release();
+            if (buff != null) {
+                buff.release();
+            }
+        }
+    }
+
+    static void encodeSubscribeWithTemporaryBuffers(ByteBufAllocator alloc, SubscribeMessage message, ByteBuf out) {
+        ByteBuf variableHeaderBuff = alloc.buffer(4);
+        ByteBuf buff = null;
+        try {
+            variableHeaderBuff.writeShort(message.getMessageID());
+            for (SubscribeMessage.Couple c : message.subscriptions()) {
+                variableHeaderBuff.writeBytes(Utils.encodeString(c.topicFilter));
+                variableHeaderBuff.writeByte(c.qos);
+            }
+            int variableHeaderSize = variableHeaderBuff.readableBytes();
+            byte flags = Utils.encodeFlags(message);
+            buff = alloc.buffer(2 + variableHeaderSize);
+            buff.writeByte(AbstractMessage.SUBSCRIBE << 4 | flags);
+            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
+            buff.writeBytes(variableHeaderBuff);
+            out.writeBytes(buff);
+        } finally {
+            variableHeaderBuff.release();
+            if (buff != null) {
+                buff.release();
+            }
+        }
+    }
+
+    static void encodeConnectWithTemporaryBuffers(ByteBufAllocator alloc, ConnectMessage message, ByteBuf out) {
+        ByteBuf staticHeaderBuff = alloc.buffer(12);
+        ByteBuf buff = alloc.buffer();
+        ByteBuf variableHeaderBuff = alloc.buffer(12);
+        try {
+            staticHeaderBuff.writeBytes(Utils.encodeString("MQIsdp"));
+            staticHeaderBuff.writeByte(0x03);
+            byte connectionFlags = 0;
+            if (message.isCleanSession()) {
+                connectionFlags |= 0x02;
+            }
+            if (message.isWillFlag()) {
+                connectionFlags |= 0x04;
+            }
+            connectionFlags |= ((message.getWillQos() & 0x03) << 3);
+            if (message.isWillRetain()) {
+                connectionFlags |= 0x020;
+            }
+            if (message.isPasswordFlag()) {
+                connectionFlags |= 0x040;
+            }
+            if (message.isUserFlag()) {
+                connectionFlags |= 0x080;
+            }
+            staticHeaderBuff.writeByte(connectionFlags);
+            staticHeaderBuff.writeShort(message.getKeepAlive());
+            if (message.getClientID() != null) {
+                variableHeaderBuff.writeBytes(Utils.encodeString(message.getClientID()));
+                if (message.isWillFlag()) {
+                    variableHeaderBuff.writeBytes(Utils.encodeString(message.getWillTopic()));
+                    variableHeaderBuff.writeBytes(Utils.encodeFixedLengthContent(message.getWillMessage()));
+                }
+                if (message.isUserFlag() && message.getUsername() != null) {
+                    variableHeaderBuff.writeBytes(Utils.encodeString(message.getUsername()));
+                    if (message.isPasswordFlag() && message.getPassword() != null) {
+                        variableHeaderBuff.writeBytes(Utils.encodeFixedLengthContent(message.getPassword()));
+                    }
+                }
+            }
+            int variableHeaderSize = variableHeaderBuff.readableBytes();
+            buff.writeByte(AbstractMessage.CONNECT << 4);
+            buff.writeBytes(Utils.encodeRemainingLength(12 + variableHeaderSize));
+            buff.writeBytes(staticHeaderBuff).writeBytes(variableHeaderBuff);
+            out.writeBytes(buff);
+        } finally {
+            staticHeaderBuff.release();
+            buff.release();
+            variableHeaderBuff.release();
+        }
+    }
+}
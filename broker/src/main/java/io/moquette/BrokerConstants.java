@@ -50,4 +50,13 @@ public class BrokerConstants {
     public static final String HOST = "0.0.0.0";
     public static final String NEED_CLIENT_AUTH = "need_client_auth";
     public static final String HAZELCAST_CONFIGURATION = "hazelcast.configuration";
+    public static final String TOPICS_CACHE_SIZE_PROPERTY_NAME = "topics_cache_size";
+    public static final String SUBSCRIPTIONS_MATCHES_CACHE_SIZE_PROPERTY_NAME = "subscriptions_matches_cache_size";
+    public static final String SUBSCRIPTIONS_TREE_PROPERTY_NAME = "subscriptions_tree";
+    public static final String SUBSCRIPTIONS_COMPACTION_INTERVAL_PROPERTY_NAME = "subscriptions_compaction_interval";
+    public static final String SUBSCRIPTIONS_SNAPSHOT_PROPERTY_NAME = "subscriptions_snapshot";
+    public static final String SUBSCRIPTIONS_SNAPSHOT_INTERVAL_PROPERTY_NAME = "subscriptions_snapshot_interval";
+    public static final String SHARED_SUBSCRIPTION_STRATEGY_PROPERTY_NAME = "shared_subscription_strategy";
+    public static final String MESSAGES_POOLING_PROPERTY_NAME = "messages_pooling";
+    public static final String PUBLISH_FORWARDING_PROPERTY_NAME = "publish_forwarding";
 }
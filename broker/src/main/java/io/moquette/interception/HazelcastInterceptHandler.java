@@ -21,9 +21,10 @@ public class HazelcastInterceptHandler extends AbstractInterceptHandler {
 
     @Override
     public void onPublish(InterceptPublishMessage msg) {
-        LOG.info("{} publish on {} message: {}", msg.getClientID(), msg.getTopicName(), new String(msg.getPayload().array()));
-        ITopic<HazelcastMsg> topic = hz.getTopic("moquette");
         HazelcastMsg hazelcastMsg = new HazelcastMsg(msg);
+        LOG.info("{} publish on {} message: {}", msg.getClientID(), msg.getTopicName(),
+                new String(hazelcastMsg.getPayload()));
+        ITopic<HazelcastMsg> topic = hz.getTopic("moquette");
         topic.publish(hazelcastMsg);
     }
 
@@ -3,6 +3,7 @@ package io.moquette.interception;
 import io.moquette.interception.messages.InterceptPublishMessage;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Created by mackristof on 28/05/2016.
@@ -18,7 +19,10 @@ public class HazelcastMsg implements Serializable {
         this.clientId = msg.getClientID();
         this.topic = msg.getTopicName();
         this.qos = msg.getQos().byteValue();
-        this.payload = msg.getPayload().array();
+        //the payload could be a view of a direct buffer, copy it
+        ByteBuffer content = msg.getPayload();
+        this.payload = new byte[content.remaining()];
+        content.get(this.payload);
     }
 
     public String getClientId() {
@@ -23,8 +23,11 @@ public class InterceptPublishMessage extends InterceptAbstractMessage {
         return msg.getTopicName();
     }
 
+    /**
+     * @return a view of the payload, shared with the other handlers: it's valid only while the handler runs.
+     * */
     public ByteBuffer getPayload() {
-        return msg.getPayload();
+        return msg.getPayload().duplicate();
     }
 
     public String getClientID() {
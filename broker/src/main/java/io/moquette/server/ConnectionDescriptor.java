@@ -15,15 +15,17 @@
  */
 package io.moquette.server;
 
+import io.moquette.spi.ClientSession;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Value object to maintain the information of single connection, like ClientID, Channel,
- * and clean session flag.
+ * clean session flag and the live session of the client.
  *
  *
  * @author andrea
@@ -43,6 +45,10 @@ public class ConnectionDescriptor {
     public final Channel channel;
     public final boolean cleanSession;
     private final AtomicReference<ConnectionState> channelState = new AtomicReference<>(ConnectionState.DISCONNECTED);
+    //session of the connected client, null till the session is created or loaded during the CONNECT
+    private volatile ClientSession session;
+    //QoS1 and QoS2 publishes sent to the client and not yet acknowledged
+    private final AtomicInteger inflight = new AtomicInteger();
 
     public ConnectionDescriptor(String clientID, Channel session, boolean cleanSession) {
         this.clientID = clientID;
@@ -60,6 +66,33 @@ public class ConnectionDescriptor {
 //        }
     }
 
+    public ClientSession session() {
+        return session;
+    }
+
+    public void setSession(ClientSession session) {
+        this.session = session;
+    }
+
+    public int inflight() {
+        return inflight.get();
+    }
+
+    public void inflightSent() {
+        inflight.incrementAndGet();
+    }
+
+    public void inflightAcknowledged() {
+        int current;
+        do {
+            current = inflight.get();
+            if (current == 0) {
+                //acknowledge of a publish not counted, like the ones republished on reconnect
+                return;
+            }
+        } while (!inflight.compareAndSet(current, current - 1));
+    }
+
     public boolean assignState(ConnectionState expected, ConnectionState newState) {
         return channelState.compareAndSet(expected, newState);
     }
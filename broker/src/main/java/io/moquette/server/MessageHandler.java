@@ -3,6 +3,7 @@ package io.moquette.server;
 import io.moquette.interception.AbstractInterceptHandler;
 import io.moquette.interception.messages.*;
 
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -48,8 +49,11 @@ public class MessageHandler extends AbstractInterceptHandler {
     @Override
     public void onPublish(InterceptPublishMessage msg) {
         super.onPublish(msg);
+        ByteBuffer payload = msg.getPayload();
+        byte[] content = new byte[payload.remaining()];
+        payload.get(content);
         String base = String.format("Publish [clientID: %s, username: %s, topicName: %s, payload: %s]",
-                msg.getClientID(), msg.getUsername(), msg.getTopicName(), new String(msg.getPayload().array()));
+                msg.getClientID(), msg.getUsername(), msg.getTopicName(), new String(content));
         println(base);
     }
 
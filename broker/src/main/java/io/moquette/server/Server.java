@@ -34,6 +34,7 @@ import io.moquette.server.config.IConfig;
 import io.moquette.server.netty.NettyAcceptor;
 import io.moquette.spi.impl.ProtocolProcessor;
 import io.moquette.spi.impl.subscriptions.Subscription;
+import io.moquette.spi.impl.subscriptions.SubscriptionsMetrics;
 import io.moquette.spi.security.IAuthenticator;
 import io.moquette.spi.security.IAuthorizator;
 import io.moquette.spi.security.ISslContextCreator;
@@ -223,6 +224,17 @@ public class Server {
         return m_processorBootstrapper.getSubscriptions();
     }
 
+    /**
+     * SPI method used by Broker embedded applications to read the counters of the subscriptions tree.
+     * Returns null if the broker is not started.
+     */
+    public SubscriptionsMetrics getSubscriptionsMetrics() {
+        if (m_processorBootstrapper == null) {
+            return null;
+        }
+        return m_processorBootstrapper.getSubscriptionsMetrics();
+    }
+
     /**
      * SPI method used by Broker embedded applications to add intercept handlers.
      * */
@@ -15,6 +15,8 @@
  */
 package io.moquette.server.netty;
 
+import io.moquette.parser.netty.DecodedPublishMessage;
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.Utils;
 import io.moquette.parser.proto.messages.*;
 import io.moquette.spi.impl.ProtocolProcessor;
@@ -58,7 +60,14 @@ public class NettyMQTTHandler extends ChannelInboundHandlerAdapter {
                     m_processor.processUnsubscribe(ctx.channel(), (UnsubscribeMessage) msg);
                     break;
                 case PUBLISH:
-                    m_processor.processPublish(ctx.channel(), (PublishMessage) msg);
+                    try {
+                        m_processor.processPublish(ctx.channel(), (PublishMessage) msg);
+                    } finally {
+                        //processed, who keeps the payload has retained or copied it
+                        if (msg instanceof DecodedPublishMessage) {
+                            ((DecodedPublishMessage) msg).release();
+                        }
+                    }
                     break;
                 case PUBREC:
                     m_processor.processPubRec(ctx.channel(), (PubRecMessage) msg);
@@ -76,13 +85,15 @@ public class NettyMQTTHandler extends ChannelInboundHandlerAdapter {
                     m_processor.processPubAck(ctx.channel(), (PubAckMessage) msg);
                     break;
                 case PINGREQ:
-                    PingRespMessage pingResp = new PingRespMessage();
-                    ctx.writeAndFlush(pingResp);
+                    ctx.writeAndFlush(MessagesPool.PINGRESP);
                     break;
             }
         } catch (Exception ex) {
             LOG.error("Bad error in processing the message", ex);
             ctx.fireExceptionCaught(ex);
+        } finally {
+            //the pooled acknowledgments aren't referenced after their processing
+            MessagesPool.recycle(msg);
         }
     }
     
@@ -18,6 +18,8 @@ package io.moquette.spi;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import io.moquette.parser.proto.messages.AbstractMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.util.Collection;
 import java.util.List;
@@ -30,7 +32,10 @@ public interface IMessagesStore {
 
     class StoredMessage implements Serializable {
         final AbstractMessage.QOSType m_qos;
-        final byte[] m_payload;
+        //null while the payload is borrowed
+        byte[] m_payload;
+        //the borrowed payload, never persisted
+        private transient ByteBuf m_payloadBuffer;
         final String m_topic;
         private boolean m_retained;
         private String m_clientID;
@@ -45,12 +50,37 @@ public interface IMessagesStore {
             m_topic = topic;
         }
 
+        /**
+         * Borrow the payload without copying it, the message is valid only while the caller holds the buffer.
+         * Call {@link #ownPayload()} before handing the message to the persistence.
+         * */
+        public StoredMessage(ByteBuf payload, AbstractMessage.QOSType qos, String topic) {
+            m_qos = qos;
+            m_payloadBuffer = payload;
+            m_topic = topic;
+        }
+
+        /**
+         * Copy the borrowed payload, so that the message outlives the buffer it was borrowed from.
+         * */
+        public void ownPayload() {
+            if (m_payload != null) {
+                return;
+            }
+            m_payload = new byte[m_payloadBuffer.readableBytes()];
+            m_payloadBuffer.getBytes(m_payloadBuffer.readerIndex(), m_payload);
+            m_payloadBuffer = null;
+        }
+
         public AbstractMessage.QOSType getQos() {
             return m_qos;
         }
 
+        /**
+         * @return a read only view of the payload.
+         * */
         public ByteBuffer getPayload() {
-            return (ByteBuffer) ByteBuffer.allocate(m_payload.length).put(m_payload).flip();
+            return getMessage().asReadOnlyBuffer();
         }
 
         public String getTopic() {
@@ -82,7 +112,14 @@ public interface IMessagesStore {
         }
 
         public ByteBuffer getMessage() {
-            return ByteBuffer.wrap(m_payload);
+            return m_payload != null ? ByteBuffer.wrap(m_payload) : m_payloadBuffer.nioBuffer();
+        }
+
+        /**
+         * @return the payload without copying it, who keeps it beyond the routing of the message retains it.
+         * */
+        public ByteBuf getPayloadBuffer() {
+            return m_payload != null ? Unpooled.wrappedBuffer(m_payload) : m_payloadBuffer;
         }
 
         public void setRetained(boolean retained) {
@@ -133,6 +170,11 @@ public interface IMessagesStore {
      */
     Collection<StoredMessage> searchMatching(IMatchingCondition condition);
 
+    /**
+     * Return the retained messages whose topic matches the topic filter, loading only the matching ones.
+     */
+    Collection<StoredMessage> searchRetained(String topicFilter);
+
     /**
      * Persist the message.
      * @return the unique id in the storage (guid).
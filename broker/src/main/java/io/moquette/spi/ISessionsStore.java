@@ -99,6 +99,33 @@ public interface ISessionsStore {
      */
     List<Subscription> getSubscriptions();
 
+    /**
+     * @return the subscriptions stored for the client.
+     */
+    List<Subscription> getSubscriptions(String clientID);
+
+    /**
+     * Record a change of the subscriptions of the client with a sequence number greater than the previous ones,
+     * see {@link #clientsChangedSince(long)}. Called once the change is applied, the store doesn't record the
+     * changes by itself.
+     */
+    void markSubscriptionsChanged(String clientID);
+
+    /**
+     * @return the sequence number of the last change of the subscriptions recorded.
+     */
+    long subscriptionsSequence();
+
+    /**
+     * @return the clients whose subscriptions changed after the given sequence number.
+     */
+    Collection<String> clientsChangedSince(long sequence);
+
+    /**
+     * Forget the changes recorded up to the sequence number of a subscriptions snapshot written successfully.
+     */
+    void pruneSubscriptionsChanges(long sequence);
+
     /**
      * @return true iff there are subscriptions persisted with clientID
      */
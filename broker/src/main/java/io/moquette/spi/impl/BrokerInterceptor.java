@@ -18,6 +18,7 @@ package io.moquette.spi.impl;
 import io.moquette.interception.InterceptHandler;
 import io.moquette.interception.Interceptor;
 import io.moquette.interception.messages.*;
+import io.moquette.parser.netty.DecodedPublishMessage;
 import io.moquette.parser.proto.messages.ConnectMessage;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.parser.proto.messages.PublishMessage;
@@ -87,10 +88,20 @@ final class BrokerInterceptor implements Interceptor {
     @Override
     public void notifyTopicPublished(final PublishMessage msg, final String clientID, final String username) {
         for (final InterceptHandler handler : this.handlers) {
+            //the decoded payload is released once the publish is processed, keep it for the handler
+            if (msg instanceof DecodedPublishMessage) {
+                ((DecodedPublishMessage) msg).retain();
+            }
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    handler.onPublish(new InterceptPublishMessage(msg, clientID, username));
+                    try {
+                        handler.onPublish(new InterceptPublishMessage(msg, clientID, username));
+                    } finally {
+                        if (msg instanceof DecodedPublishMessage) {
+                            ((DecodedPublishMessage) msg).release();
+                        }
+                    }
                 }
             });
         }
@@ -1,84 +1,246 @@
 package io.moquette.spi.impl;
 
+import io.moquette.parser.netty.EncodedPublish;
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.messages.AbstractMessage;
-import io.moquette.parser.proto.messages.PublishMessage;
 import io.moquette.server.ConnectionDescriptor;
 import io.moquette.spi.ClientSession;
 import io.moquette.spi.IMessagesStore;
 import io.moquette.spi.ISessionsStore;
 import io.moquette.spi.MessageGUID;
 import io.moquette.spi.impl.subscriptions.Subscription;
+import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.moquette.spi.impl.ProtocolProcessor.lowerQosToTheSubscriptionDesired;
 
 class MessagesPublisher {
 
+    /**
+     * How the member of a shared subscription group that receives a publish is selected.
+     * */
+    enum SharedSubscriptionStrategy {
+        ROUND_ROBIN, LEAST_INFLIGHT;
+
+        static SharedSubscriptionStrategy parse(String name) {
+            for (SharedSubscriptionStrategy strategy : values()) {
+                if (strategy.name().equalsIgnoreCase(name.trim())) {
+                    return strategy;
+                }
+            }
+            LOG.warn("Unknown shared subscription strategy <{}>, using round_robin", name);
+            return ROUND_ROBIN;
+        }
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(MessagesPublisher.class);
     private final ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors;
     private final ISessionsStore m_sessionsStore;
     private final IMessagesStore m_messagesStore;
     private final PersistentQueueMessageSender messageSender;
+    private final SharedSubscriptionStrategy m_sharedStrategy;
+    private final MessagesPool m_messagesPool;
+    //a cursor dropped to bound the map restarts the round robin of its group from the first member
+    static final int MAX_SHARED_CURSORS = 10000;
+    //next member to pick for each shared subscription, keyed by $share/<group>/<filter>
+    private final ConcurrentMap<String, AtomicInteger> m_sharedCursors = new ConcurrentHashMap<>();
 
     public MessagesPublisher(ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors, ISessionsStore sessionsStore,
                              IMessagesStore messagesStore, PersistentQueueMessageSender messageSender) {
+        this(connectionDescriptors, sessionsStore, messagesStore, messageSender, SharedSubscriptionStrategy.ROUND_ROBIN);
+    }
+
+    public MessagesPublisher(ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors, ISessionsStore sessionsStore,
+                             IMessagesStore messagesStore, PersistentQueueMessageSender messageSender,
+                             SharedSubscriptionStrategy sharedStrategy) {
+        this(connectionDescriptors, sessionsStore, messagesStore, messageSender, sharedStrategy, MessagesPool.UNPOOLED);
+    }
+
+    public MessagesPublisher(ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors, ISessionsStore sessionsStore,
+                             IMessagesStore messagesStore, PersistentQueueMessageSender messageSender,
+                             SharedSubscriptionStrategy sharedStrategy, MessagesPool messagesPool) {
         this.connectionDescriptors = connectionDescriptors;
         this.m_sessionsStore = sessionsStore;
         this.m_messagesStore = messagesStore;
         this.messageSender = messageSender;
+        this.m_sharedStrategy = sharedStrategy;
+        this.m_messagesPool = messagesPool;
     }
 
-    static PublishMessage notRetainedPublish(String topic, AbstractMessage.QOSType qos, ByteBuffer message) {
-        PublishMessage pubMessage = new PublishMessage();
-        pubMessage.setRetainFlag(false);
-        pubMessage.setTopicName(topic);
-        pubMessage.setQos(qos);
-        pubMessage.setPayload(message);
-        return pubMessage;
+    void publish2Subscribers(IMessagesStore.StoredMessage pubMsg, List<Subscription> topicMatchingSubscriptions) {
+        publish2Subscribers(pubMsg, null, topicMatchingSubscriptions);
     }
 
-    void publish2Subscribers(IMessagesStore.StoredMessage pubMsg, List<Subscription> topicMatchingSubscriptions) {
+    /**
+     * @param encodedTopicName the topic as read from the inbound frame, forwarded without encoding it again,
+     *                         or null to encode the topic of the message.
+     * */
+    void publish2Subscribers(IMessagesStore.StoredMessage pubMsg, ByteBuf encodedTopicName,
+                             List<Subscription> topicMatchingSubscriptions) {
         final String topic = pubMsg.getTopic();
         final AbstractMessage.QOSType publishingQos = pubMsg.getQos();
-        final ByteBuffer origMessage = pubMsg.getMessage();
 
-        //if QoS 1 or 2 store the message
+        //if QoS 1 or 2 store the message, the persisted message can't borrow its payload
         MessageGUID guid = null;
         if (publishingQos != AbstractMessage.QOSType.MOST_ONE) {
+            pubMsg.ownPayload();
             guid = m_messagesStore.storePublishForFuture(pubMsg);
         }
 
         LOG.trace("Found {} matching subscriptions to <{}>", topicMatchingSubscriptions.size(), topic);
+        //the topic and the payload are encoded once and shared by the messages to all the subscribers
+        EncodedPublish encoded = new EncodedPublish(topic, encodedTopicName, pubMsg.getPayloadBuffer(), m_messagesPool);
+        try {
+            publish2Subscribers(encoded, publishingQos, guid, topicMatchingSubscriptions);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private void publish2Subscribers(EncodedPublish encoded, AbstractMessage.QOSType publishingQos, MessageGUID guid,
+                                     List<Subscription> topicMatchingSubscriptions) {
+        //members of the same shared subscription, keyed by $share/<group>/<filter>
+        Map<String, List<Subscription>> sharedGroups = null;
         for (final Subscription sub : topicMatchingSubscriptions) {
-            AbstractMessage.QOSType qos = lowerQosToTheSubscriptionDesired(sub, publishingQos);
-            ClientSession targetSession = m_sessionsStore.sessionForClient(sub.getClientId());
-
-            boolean targetIsActive = this.connectionDescriptors.containsKey(sub.getClientId());
-
-            LOG.debug("Broker republishing to client <{}> topicFilter <{}> qos <{}>, active {}",
-                    sub.getClientId(), sub.getTopicFilter(), qos, targetIsActive);
-            ByteBuffer message = origMessage.duplicate();
-            if (targetIsActive) {
-                PublishMessage publishMsg = notRetainedPublish(topic, qos, message);
-                if (qos != AbstractMessage.QOSType.MOST_ONE) {
-                    //QoS 1 or 2
-                    int messageId = targetSession.nextPacketId();
-                    targetSession.inFlightAckWaiting(guid, messageId);
-                    //set the PacketIdentifier only for QoS > 0
-                    publishMsg.setMessageID(messageId);
+            if (SubscriptionsStore.isShared(sub.getTopicFilter())) {
+                if (sharedGroups == null) {
+                    sharedGroups = new HashMap<>();
                 }
-                this.messageSender.sendPublish(targetSession, publishMsg);
-            } else {
-                if (!targetSession.isCleanSession()) {
-                    //store the message in targetSession queue to deliver
-                    targetSession.enqueueToDeliver(guid);
+                List<Subscription> members = sharedGroups.get(sub.getTopicFilter());
+                if (members == null) {
+                    members = new ArrayList<>();
+                    sharedGroups.put(sub.getTopicFilter(), members);
                 }
+                members.add(sub);
+                continue;
+            }
+            publishToSubscriber(sub, encoded, publishingQos, guid);
+        }
+
+        if (sharedGroups != null) {
+            for (Map.Entry<String, List<Subscription>> group : sharedGroups.entrySet()) {
+                Subscription member = selectSharedMember(group.getKey(), group.getValue());
+                publishToSubscriber(member, encoded, publishingQos, guid);
+            }
+        }
+    }
+
+    private void publishToSubscriber(Subscription sub, EncodedPublish encoded, AbstractMessage.QOSType publishingQos,
+                                     MessageGUID guid) {
+        AbstractMessage.QOSType qos = lowerQosToTheSubscriptionDesired(sub, publishingQos);
+        //the connection carries the live session, the sessions store is consulted only for offline clients
+        ConnectionDescriptor descriptor = this.connectionDescriptors.get(sub.getClientId());
+        boolean targetIsActive = descriptor != null;
+        ClientSession targetSession = targetIsActive ? descriptor.session() : null;
+        if (targetSession == null) {
+            targetSession = m_sessionsStore.sessionForClient(sub.getClientId());
+        }
+
+        LOG.debug("Broker republishing to client <{}> topicFilter <{}> qos <{}>, active {}",
+                sub.getClientId(), sub.getTopicFilter(), qos, targetIsActive);
+        if (targetIsActive) {
+            Integer messageId = null;
+            if (qos != AbstractMessage.QOSType.MOST_ONE) {
+                //QoS 1 or 2
+                messageId = targetSession.nextPacketId();
+                targetSession.inFlightAckWaiting(guid, messageId);
+                descriptor.inflightSent();
+            }
+            //set the PacketIdentifier only for QoS > 0, the only part of the message that isn't shared
+            this.messageSender.sendPublish(descriptor, targetSession, encoded.messageFor(qos, messageId));
+        } else {
+            if (!targetSession.isCleanSession()) {
+                //store the message in targetSession queue to deliver
+                targetSession.enqueueToDeliver(guid);
+            }
+        }
+    }
+
+    /**
+     * Select the member of a shared subscription that receives the publish. Connected members that can accept
+     * writes are preferred, then the connected ones and at last, when no one is online, the offline members.
+     * */
+    private Subscription selectSharedMember(String sharedFilter, List<Subscription> members) {
+        int connected = 0;
+        int writable = 0;
+        for (Subscription member : members) {
+            ConnectionDescriptor descriptor = this.connectionDescriptors.get(member.getClientId());
+            if (descriptor == null) {
+                continue;
+            }
+            connected++;
+            if (descriptor.channel.isWritable()) {
+                writable++;
+            }
+        }
+        //the members are copied only when some of them must be filtered out
+        List<Subscription> candidates = members;
+        if (writable > 0 && writable < members.size()) {
+            candidates = filterMembers(members, writable, true);
+        } else if (writable == 0 && connected > 0 && connected < members.size()) {
+            candidates = filterMembers(members, connected, false);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        if (m_sharedStrategy == SharedSubscriptionStrategy.LEAST_INFLIGHT && connected > 0) {
+            Subscription selected = null;
+            int minInflight = Integer.MAX_VALUE;
+            for (Subscription candidate : candidates) {
+                ConnectionDescriptor descriptor = this.connectionDescriptors.get(candidate.getClientId());
+                int inflight = descriptor != null ? descriptor.inflight() : Integer.MAX_VALUE;
+                if (selected == null || inflight < minInflight) {
+                    selected = candidate;
+                    minInflight = inflight;
+                }
+            }
+            return selected;
+        }
+
+        AtomicInteger cursor = m_sharedCursors.get(sharedFilter);
+        if (cursor == null) {
+            if (m_sharedCursors.size() >= MAX_SHARED_CURSORS) {
+                //the groups come and go, drop any cursor to make room
+                Iterator<String> sharedFilters = m_sharedCursors.keySet().iterator();
+                if (sharedFilters.hasNext()) {
+                    sharedFilters.next();
+                    sharedFilters.remove();
+                }
+            }
+            AtomicInteger newCursor = new AtomicInteger();
+            cursor = m_sharedCursors.putIfAbsent(sharedFilter, newCursor);
+            if (cursor == null) {
+                cursor = newCursor;
+            }
+        }
+        int next = cursor.getAndIncrement() & Integer.MAX_VALUE;
+        return candidates.get(next % candidates.size());
+    }
+
+    /**
+     * @return the members connected, and writable too if required.
+     * */
+    private List<Subscription> filterMembers(List<Subscription> members, int expected, boolean writable) {
+        List<Subscription> filtered = new ArrayList<>(expected);
+        for (Subscription member : members) {
+            ConnectionDescriptor descriptor = this.connectionDescriptors.get(member.getClientId());
+            if (descriptor != null && (!writable || descriptor.channel.isWritable())) {
+                filtered.add(member);
             }
         }
+        //a member could have disconnected meanwhile
+        return filtered.isEmpty() ? members : filtered;
     }
 }
@@ -1,5 +1,7 @@
 package io.moquette.spi.impl;
 
+import io.moquette.parser.netty.EncodedPublishMessage;
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.messages.PublishMessage;
 import io.moquette.server.ConnectionDescriptor;
 import io.moquette.spi.ClientSession;
@@ -22,33 +24,54 @@ class PersistentQueueMessageSender {
 
     void sendPublish(ClientSession clientsession, PublishMessage pubMessage) {
         String clientId = clientsession.clientID;
-        LOG.info("send publish message to <{}> on topic <{}>", clientId, pubMessage.getTopicName());
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("directSend invoked clientId <{}> on topic <{}> QoS {} retained {} messageID {}",
-                    clientId, pubMessage.getTopicName(), pubMessage.getQos(), false, pubMessage.getMessageID());
-            LOG.debug("content <{}>", DebugUtils.payload2Str(pubMessage.getPayload()));
-        }
-
         if (connectionDescriptors == null) {
             throw new RuntimeException("Internal bad error, found connectionDescriptors to null while it should be " +
                     "initialized, somewhere it's overwritten!!");
         }
-        if (connectionDescriptors.get(clientId) == null) {
+        ConnectionDescriptor descriptor = connectionDescriptors.get(clientId);
+        if (descriptor == null) {
             //TODO while we were publishing to the target client, that client disconnected,
             // could happen is not an error HANDLE IT
             throw new RuntimeException(String.format("Can't find a ConnectionDescriptor for client <%s> in cache <%s>",
                     clientId, connectionDescriptors));
         }
-        Channel channel = connectionDescriptors.get(clientId).channel;
+        sendPublish(descriptor, clientsession, pubMessage);
+    }
+
+    /**
+     * Send the publish on the connection already resolved by the caller.
+     * */
+    void sendPublish(ConnectionDescriptor descriptor, ClientSession clientsession, PublishMessage pubMessage) {
+        String clientId = clientsession.clientID;
+        LOG.info("send publish message to <{}> on topic <{}>", clientId, pubMessage.getTopicName());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("directSend invoked clientId <{}> on topic <{}> QoS {} retained {} messageID {}",
+                    clientId, pubMessage.getTopicName(), pubMessage.getQos(), false, pubMessage.getMessageID());
+            LOG.debug("content <{}>", DebugUtils.payload2Str(pubMessage.getPayload()));
+        }
+
+        Channel channel = descriptor.channel;
         LOG.trace("Session for clientId {}", clientId);
         if (channel.isWritable()) {
             LOG.debug("channel is writable");
             //if channel is writable don't enqueue
             channel.writeAndFlush(pubMessage);
         } else if (pubMessage.getQos() != MOST_ONE) {
-            //enqueue to the client session
+            //enqueue to the client session, the encoded messages keep sharing their buffers while queued
             LOG.debug("enqueue to client session");
-            clientsession.enqueue(pubMessage);
+            if (!clientsession.enqueue(pubMessage)) {
+                LOG.warn("The queue of client <{}> is full, dropping the message", clientId);
+                release(pubMessage);
+            }
+        } else {
+            release(pubMessage);
+        }
+    }
+
+    private static void release(PublishMessage pubMessage) {
+        if (pubMessage instanceof EncodedPublishMessage) {
+            ((EncodedPublishMessage) pubMessage).release();
         }
+        MessagesPool.recycle(pubMessage);
     }
 }
@@ -22,6 +22,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import io.moquette.interception.InterceptHandler;
+import io.moquette.parser.netty.DecodedPublishMessage;
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.messages.*;
 import io.moquette.server.ConnectionDescriptor;
 import io.moquette.server.ConnectionDescriptor.ConnectionState;
@@ -33,11 +35,14 @@ import io.moquette.spi.security.IAuthenticator;
 import io.moquette.spi.security.IAuthorizator;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
 import io.moquette.spi.impl.subscriptions.Subscription;
+import io.moquette.spi.impl.subscriptions.Topic;
 
 import static io.moquette.parser.netty.Utils.VERSION_3_1;
 import static io.moquette.parser.netty.Utils.VERSION_3_1_1;
 import io.moquette.interception.messages.InterceptAcknowledgedMessage;
 import io.moquette.parser.proto.messages.AbstractMessage.QOSType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -133,6 +138,7 @@ public class ProtocolProcessor {
     private IAuthenticator m_authenticator;
     private BrokerInterceptor m_interceptor;
     private String m_server_port;
+    private MessagesPool m_messagesPool;
 
     private Qos0PublishHandler qos0PublishHandler;
     private Qos1PublishHandler qos1PublishHandler;
@@ -149,7 +155,8 @@ public class ProtocolProcessor {
                      ISessionsStore sessionsStore,
                      IAuthenticator authenticator,
                      boolean allowAnonymous, IAuthorizator authorizator, BrokerInterceptor interceptor) {
-        init(subscriptions,storageService,sessionsStore,authenticator,allowAnonymous, false, authorizator,interceptor,null);
+        init(subscriptions,storageService,sessionsStore,authenticator,allowAnonymous, false, authorizator,interceptor,null,
+                MessagesPublisher.SharedSubscriptionStrategy.ROUND_ROBIN, MessagesPool.UNPOOLED, false);
     }
 
     public void init(SubscriptionsStore subscriptions, IMessagesStore storageService,
@@ -157,7 +164,8 @@ public class ProtocolProcessor {
                      IAuthenticator authenticator,
                      boolean allowAnonymous,
                      boolean allowZeroByteClientId, IAuthorizator authorizator, BrokerInterceptor interceptor) {
-        init(subscriptions,storageService,sessionsStore,authenticator,allowAnonymous, allowZeroByteClientId, authorizator,interceptor,null);
+        init(subscriptions,storageService,sessionsStore,authenticator,allowAnonymous, allowZeroByteClientId, authorizator,interceptor,null,
+                MessagesPublisher.SharedSubscriptionStrategy.ROUND_ROBIN, MessagesPool.UNPOOLED, false);
     }
 
     /**
@@ -171,12 +179,17 @@ public class ProtocolProcessor {
      * @param allowZeroByteClientId true to allow clients connect without a clientid
      * @param authorizator used to apply ACL policies to publishes and subscriptions.
      * @param interceptor to notify events to an intercept handler
+     * @param sharedSubscriptionStrategy how a member of a shared subscription group is selected for each publish.
+     * @param messagesPool where the acknowledgments and the messages to the subscribers are taken from.
+     * @param publishForwarding true to forward the QoS 0 publishes with the topic bytes of the received frame.
      */
     void init(SubscriptionsStore subscriptions, IMessagesStore storageService,
               ISessionsStore sessionsStore,
               IAuthenticator authenticator,
               boolean allowAnonymous,
-              boolean allowZeroByteClientId, IAuthorizator authorizator, BrokerInterceptor interceptor, String serverPort) {
+              boolean allowZeroByteClientId, IAuthorizator authorizator, BrokerInterceptor interceptor, String serverPort,
+              MessagesPublisher.SharedSubscriptionStrategy sharedSubscriptionStrategy, MessagesPool messagesPool,
+              boolean publishForwarding) {
         this.connectionDescriptors = new ConcurrentHashMap<>();
         this.subscriptionInCourse = new ConcurrentHashMap<>();
         this.reconnectingDescriptors = new ConcurrentHashMap<>();
@@ -192,16 +205,19 @@ public class ProtocolProcessor {
         m_messagesStore = storageService;
         m_sessionsStore = sessionsStore;
         m_server_port = serverPort;
+        m_messagesPool = messagesPool;
 
         final PersistentQueueMessageSender messageSender = new PersistentQueueMessageSender(this.connectionDescriptors);
-        this.messagesPublisher = new MessagesPublisher(connectionDescriptors, sessionsStore, m_messagesStore, messageSender);
+        this.messagesPublisher = new MessagesPublisher(connectionDescriptors, sessionsStore, m_messagesStore, messageSender,
+                sharedSubscriptionStrategy, m_messagesPool);
 
         this.qos0PublishHandler = new Qos0PublishHandler(m_authorizator, subscriptions, m_messagesStore,
-                m_interceptor, this.messagesPublisher);
+                m_interceptor, this.messagesPublisher, publishForwarding);
         this.qos1PublishHandler = new Qos1PublishHandler(m_authorizator, subscriptions, m_messagesStore,
-                m_interceptor, this.connectionDescriptors, m_server_port, this.messagesPublisher);
+                m_interceptor, this.connectionDescriptors, m_server_port, this.messagesPublisher, m_messagesPool);
         this.qos2PublishHandler = new Qos2PublishHandler(m_authorizator, subscriptions, m_messagesStore,
-                m_interceptor, this.connectionDescriptors, m_sessionsStore, m_server_port, this.messagesPublisher);
+                m_interceptor, this.connectionDescriptors, m_sessionsStore, m_server_port, this.messagesPublisher,
+                m_messagesPool);
 
         this.internalRepublisher = new InternalRepublisher(messageSender);
     }
@@ -363,8 +379,11 @@ public class ProtocolProcessor {
         }
         if (msg.isCleanSession()) {
             clientSession.cleanSession();
+            //keep the tree aligned to the wiped session, else cached matches would still point to it
+            subscriptions.removeForClient(msg.getClientID());
         }
         LOG.debug("Created session for client ID <{}> with clean session {}", msg.getClientID(), msg.isCleanSession());
+        descriptor.setSession(clientSession);
         return clientSession;
     }
 
@@ -435,14 +454,24 @@ public class ProtocolProcessor {
         ClientSession targetSession = m_sessionsStore.sessionForClient(clientID);
         StoredMessage inflightMsg = targetSession.getInflightMessage(messageID);
         targetSession.inFlightAcknowledged(messageID);
+        inflightAcknowledged(clientID, channel);
 
         String topic = inflightMsg.getTopic();
 
         m_interceptor.notifyMessageAcknowledged(new InterceptAcknowledgedMessage(inflightMsg, topic, username));
     }
 
+    /**
+     * The payload of a QoS 0 publish is borrowed from the message, valid while it's processed, the QoS 1 and 2
+     * payloads are copied because they're persisted.
+     * */
     static IMessagesStore.StoredMessage asStoredMessage(PublishMessage msg) {
-        IMessagesStore.StoredMessage stored = new IMessagesStore.StoredMessage(msg.getPayload().array(), msg.getQos(), msg.getTopicName());
+        ByteBuf payload = msg instanceof DecodedPublishMessage ? ((DecodedPublishMessage) msg).payloadBuffer()
+                : Unpooled.wrappedBuffer(msg.getPayload());
+        IMessagesStore.StoredMessage stored = new IMessagesStore.StoredMessage(payload, msg.getQos(), msg.getTopicName());
+        if (msg.getQos() != AbstractMessage.QOSType.MOST_ONE) {
+            stored.ownPayload();
+        }
         stored.setRetained(msg.isRetainFlag());
         stored.setMessageID(msg.getMessageID());
         return stored;
@@ -454,18 +483,27 @@ public class ProtocolProcessor {
         return pub;
     }
 
+    /**
+     * @return the number of QoS 0 publishes dropped because nobody was subscribed to their topic.
+     * */
+    public long droppedEarlyPublishes() {
+        return qos0PublishHandler == null ? 0 : qos0PublishHandler.droppedEarly();
+    }
+
     public void processPublish(Channel channel, PublishMessage msg) {
         LOG.info("PUB --PUBLISH--> SRV executePublish invoked with {}", msg);
         final AbstractMessage.QOSType qos = msg.getQos();
+        //parse the topic once, it's shared by the authorization, the matching and the retained update
+        final Topic topic = Topic.asTopic(msg.getTopicName());
         switch (qos) {
             case MOST_ONE:
-                this.qos0PublishHandler.receivedPublishQos0(channel, msg);
+                this.qos0PublishHandler.receivedPublishQos0(channel, msg, topic);
                 break;
             case LEAST_ONE:
-                this.qos1PublishHandler.receivedPublishQos1(channel, msg);
+                this.qos1PublishHandler.receivedPublishQos1(channel, msg, topic);
                 break;
             case EXACTLY_ONCE:
-                this.qos2PublishHandler.receivedPublishQos2(channel, msg);
+                this.qos2PublishHandler.receivedPublishQos2(channel, msg, topic);
                 break;
         }
     }
@@ -494,7 +532,7 @@ public class ProtocolProcessor {
         if (qos == AbstractMessage.QOSType.EXACTLY_ONCE) { //QoS2
             guid = m_messagesStore.storePublishForFuture(toStoreMsg);
         }
-        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
+        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(Topic.asTopic(topic));
         this.messagesPublisher.publish2Subscribers(toStoreMsg, topicMatchingSubscriptions);
 
         if (!msg.isRetainFlag()) {
@@ -526,7 +564,7 @@ public class ProtocolProcessor {
         IMessagesStore.StoredMessage tobeStored = asStoredMessage(will);
         tobeStored.setClientID(clientID);
         tobeStored.setMessageID(messageId);
-        String topic = tobeStored.getTopic();
+        Topic topic = new Topic(tobeStored.getTopic());
         List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
 
         this.messagesPublisher.publish2Subscribers(tobeStored, topicMatchingSubscriptions);
@@ -555,7 +593,7 @@ public class ProtocolProcessor {
         targetSession.moveInFlightToSecondPhaseAckWaiting(messageID);
         //once received a PUBREC reply with a PUBREL(messageID)
         LOG.debug("\t\tSRV <--PUBREC-- SUB processPubRec invoked for clientID {} ad messageID {}", clientID, messageID);
-        PubRelMessage pubRelMessage = new PubRelMessage();
+        PubRelMessage pubRelMessage = m_messagesPool.pubRel();
         pubRelMessage.setMessageID(messageID);
         pubRelMessage.setQos(AbstractMessage.QOSType.LEAST_ONE);
 
@@ -569,11 +607,19 @@ public class ProtocolProcessor {
         //once received the PUBCOMP then remove the message from the temp memory
         ClientSession targetSession = m_sessionsStore.sessionForClient(clientID);
         StoredMessage inflightMsg = targetSession.secondPhaseAcknowledged(messageID);
+        inflightAcknowledged(clientID, channel);
         String username = NettyUtils.userName(channel);
         String topic = inflightMsg.getTopic();
         m_interceptor.notifyMessageAcknowledged(new InterceptAcknowledgedMessage(inflightMsg, topic, username));
     }
 
+    private void inflightAcknowledged(String clientID, Channel channel) {
+        ConnectionDescriptor descriptor = this.connectionDescriptors.get(clientID);
+        if (descriptor != null && descriptor.channel == channel) {
+            descriptor.inflightAcknowledged();
+        }
+    }
+
     public void processDisconnect(Channel channel) throws InterruptedException {
         channel.flush();
         final String clientID = NettyUtils.clientID(channel);
@@ -627,6 +673,7 @@ public class ProtocolProcessor {
         if (descriptor.cleanSession) {
             LOG.info("cleaning old saved subscriptions for client <{}>", clientID);
             m_sessionsStore.wipeSubscriptions(clientID);
+            subscriptions.removeForClient(clientID);
             LOG.debug("Wiped subscriptions for client <{}>", clientID);
         }
         return true;
@@ -754,10 +801,9 @@ public class ProtocolProcessor {
             LOG.trace("subscription tree {}", subscriptions.dumpTree());
         }
 
-        for (Subscription subscription : newSubscriptions) {
-            LOG.debug("Persisting subscription {}", subscription);
-            subscriptions.add(subscription.asClientTopicCouple());
-        }
+        LOG.debug("Persisting subscriptions {}", newSubscriptions);
+        //all the filters of the SUBSCRIBE go in the tree with a single swap
+        subscriptions.addAll(newSubscriptions);
         channel.writeAndFlush(ackMessage);
 
         //fire the persisted messages in session
@@ -798,7 +844,9 @@ public class ProtocolProcessor {
         List<SubscribeMessage.Couple> ackTopics = new ArrayList<>();
 
         for (SubscribeMessage.Couple req : msg.subscriptions()) {
-            if (!m_authorizator.canRead(req.topicFilter, username, clientSession.clientID)) {
+            //the ACL of a shared subscription are the ones of the topic filter the group is subscribed to
+            String aclFilter = SubscriptionsStore.matchingFilter(req.topicFilter);
+            if (!m_authorizator.canRead(aclFilter, username, clientSession.clientID)) {
                 //send SUBACK with 0x80, the user hasn't credentials to read the topic
                 LOG.debug("topic {} doesn't have read credentials", req.topicFilter);
                 ackTopics.add(new SubscribeMessage.Couple(AbstractMessage.QOSType.FAILURE.byteValue(), req.topicFilter));
@@ -825,17 +873,13 @@ public class ProtocolProcessor {
         return ackMessage;
     }
 
-    private void publishRetainedMessagesInSession(final Subscription newSubscription, String username) {
+    private void publishRetainedMessagesInSession(Subscription newSubscription, String username) {
         LOG.debug("Publish persisted messages in session {}", newSubscription);
 
-        //scans retained messages to be published to the new subscription
-        //TODO this is ugly, it does a linear scan on potential big dataset
-        Collection<IMessagesStore.StoredMessage> messages = m_messagesStore.searchMatching(new IMatchingCondition() {
-            @Override
-            public boolean match(String key) {
-                return SubscriptionsStore.matchTopics(key, newSubscription.getTopicFilter());
-            }
-        });
+        //search the retained messages to be published to the new subscription, shared subscriptions
+        //match on the filter after the $share/<group>/ prefix
+        Collection<IMessagesStore.StoredMessage> messages = m_messagesStore.searchRetained(
+                SubscriptionsStore.matchingFilter(newSubscription.getTopicFilter()));
 
         LOG.debug("Found {} messages to republish", messages.size());
         ClientSession targetSession = m_sessionsStore.sessionForClient(newSubscription.getClientId());
@@ -847,7 +891,10 @@ public class ProtocolProcessor {
 
     public void notifyChannelWritable(Channel channel) {
         String clientID = NettyUtils.clientID(channel);
-        ClientSession clientSession = m_sessionsStore.sessionForClient(clientID);
+        ConnectionDescriptor descriptor = connectionDescriptors.get(clientID);
+        //the messages are enqueued in the live session held by the connection
+        ClientSession clientSession = descriptor != null && descriptor.session() != null ?
+                descriptor.session() : m_sessionsStore.sessionForClient(clientID);
         boolean emptyQueue = false;
         while (channel.isWritable()  && !emptyQueue) {
             AbstractMessage msg = clientSession.dequeue();
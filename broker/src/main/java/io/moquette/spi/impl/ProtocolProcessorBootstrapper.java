@@ -16,6 +16,7 @@
 package io.moquette.spi.impl;
 
 import io.moquette.BrokerConstants;
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.server.Server;
 import io.moquette.spi.IMessagesStore;
 import io.moquette.interception.InterceptHandler;
@@ -23,7 +24,10 @@ import io.moquette.server.config.IConfig;
 import io.moquette.spi.ISessionsStore;
 import io.moquette.spi.impl.security.*;
 import io.moquette.spi.impl.subscriptions.Subscription;
+import io.moquette.spi.impl.subscriptions.SubscriptionsMetrics;
+import io.moquette.spi.impl.subscriptions.SubscriptionsSnapshot;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
 import io.moquette.spi.persistence.MapDBPersistentStore;
 import io.moquette.spi.security.IAuthenticator;
 import io.moquette.spi.security.IAuthorizator;
@@ -31,12 +35,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * It's main responsibility is bootstrap the ProtocolProcessor.
@@ -57,6 +66,12 @@ public class ProtocolProcessorBootstrapper {
 
     private final ProtocolProcessor m_processor = new ProtocolProcessor();
 
+    //runs the compaction and the snapshots of the subscriptions tree, null if both disabled
+    private ScheduledExecutorService m_subscriptionsScheduler;
+
+    //null if the snapshots of the subscriptions are disabled
+    private File m_subscriptionsSnapshot;
+
     public ProtocolProcessorBootstrapper() {
     }
 
@@ -73,7 +88,18 @@ public class ProtocolProcessorBootstrapper {
      * */
     public ProtocolProcessor init(IConfig props, List<? extends InterceptHandler> embeddedObservers,
                                   IAuthenticator authenticator, IAuthorizator authorizator, Server server) {
-        subscriptions = new SubscriptionsStore();
+        Topic.setCacheSize(Integer.parseInt(props.getProperty(BrokerConstants.TOPICS_CACHE_SIZE_PROPERTY_NAME,
+                String.valueOf(Topic.DEFAULT_CACHE_SIZE))));
+        int matchesCacheSize = Integer.parseInt(props.getProperty(BrokerConstants.SUBSCRIPTIONS_MATCHES_CACHE_SIZE_PROPERTY_NAME, "0"));
+        SubscriptionsStore.TreeType treeType = SubscriptionsStore.TreeType.parse(
+                props.getProperty(BrokerConstants.SUBSCRIPTIONS_TREE_PROPERTY_NAME, "copy_on_write"));
+        subscriptions = new SubscriptionsStore(matchesCacheSize, treeType);
+        int compactionInterval = Integer.parseInt(props.getProperty(
+                BrokerConstants.SUBSCRIPTIONS_COMPACTION_INTERVAL_PROPERTY_NAME, "300"));
+        String snapshotPath = props.getProperty(BrokerConstants.SUBSCRIPTIONS_SNAPSHOT_PROPERTY_NAME, "");
+        m_subscriptionsSnapshot = snapshotPath.isEmpty() ? null : new File(snapshotPath);
+        int snapshotInterval = Integer.parseInt(props.getProperty(
+                BrokerConstants.SUBSCRIPTIONS_SNAPSHOT_INTERVAL_PROPERTY_NAME, "300"));
 
         m_mapStorage = new MapDBPersistentStore(props);
         m_mapStorage.initStore();
@@ -98,7 +124,7 @@ public class ProtocolProcessorBootstrapper {
         }
         m_interceptor = new BrokerInterceptor(observers);
 
-        subscriptions.init(m_sessionsStore);
+        subscriptions.init(m_sessionsStore, readSubscriptionsSnapshot());
 
         String configPath = System.getProperty("moquette.path", null);
         String authenticatorClassName = props.getProperty(BrokerConstants.AUTHENTICATOR_CLASS_NAME, "");
@@ -143,9 +169,57 @@ public class ProtocolProcessorBootstrapper {
 
         boolean allowAnonymous = Boolean.parseBoolean(props.getProperty(BrokerConstants.ALLOW_ANONYMOUS_PROPERTY_NAME, "true"));
         boolean allowZeroByteClientId = Boolean.parseBoolean(props.getProperty(BrokerConstants.ALLOW_ZERO_BYTE_CLIENT_ID_PROPERTY_NAME, "false"));
-        m_processor.init(subscriptions, messagesStore, m_sessionsStore, authenticator, allowAnonymous, allowZeroByteClientId, authorizator, m_interceptor, props.getProperty(BrokerConstants.PORT_PROPERTY_NAME));
+        MessagesPublisher.SharedSubscriptionStrategy sharedSubscriptionStrategy = MessagesPublisher.SharedSubscriptionStrategy.parse(
+                props.getProperty(BrokerConstants.SHARED_SUBSCRIPTION_STRATEGY_PROPERTY_NAME, "round_robin"));
+        MessagesPool messagesPool = MessagesPool.of(Boolean.parseBoolean(
+                props.getProperty(BrokerConstants.MESSAGES_POOLING_PROPERTY_NAME, "false")));
+        boolean publishForwarding = Boolean.parseBoolean(
+                props.getProperty(BrokerConstants.PUBLISH_FORWARDING_PROPERTY_NAME, "false"));
+        m_processor.init(subscriptions, messagesStore, m_sessionsStore, authenticator, allowAnonymous, allowZeroByteClientId,
+                authorizator, m_interceptor, props.getProperty(BrokerConstants.PORT_PROPERTY_NAME), sharedSubscriptionStrategy,
+                messagesPool, publishForwarding);
+        //started last, a failure of the previous steps doesn't leave its thread behind
+        scheduleSubscriptionsMaintenance(compactionInterval, snapshotInterval);
         return m_processor;
     }
+
+    private void scheduleSubscriptionsMaintenance(int compactionInterval, int snapshotInterval) {
+        boolean snapshots = m_subscriptionsSnapshot != null && snapshotInterval > 0;
+        if (compactionInterval <= 0 && !snapshots) {
+            return;
+        }
+        m_subscriptionsScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "subscriptions-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //a task that throws isn't run anymore, so the failures are logged
+        if (compactionInterval > 0) {
+            m_subscriptionsScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        subscriptions.compact();
+                        LOG.debug("Subscriptions tree compacted, nodes {}, empty nodes {}", subscriptions.nodesCount(),
+                                subscriptions.emptyNodesCount());
+                    } catch (RuntimeException ex) {
+                        LOG.error("Can't compact the subscriptions tree", ex);
+                    }
+                }
+            }, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        }
+        if (snapshots) {
+            m_subscriptionsScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    writeSubscriptionsSnapshot();
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        }
+    }
     
     private Object loadClass(String className, Class<?> cls, IConfig props) {
         Object instance = null;
@@ -194,11 +268,69 @@ public class ProtocolProcessorBootstrapper {
         return instance;
     }
 
+    private SubscriptionsSnapshot readSubscriptionsSnapshot() {
+        if (m_subscriptionsSnapshot == null || !m_subscriptionsSnapshot.exists()) {
+            return null;
+        }
+        try {
+            return SubscriptionsSnapshot.read(m_subscriptionsSnapshot);
+        } catch (IOException ex) {
+            LOG.warn("Can't read the subscriptions snapshot, rebuilding the subscriptions from the store", ex);
+            return null;
+        }
+    }
+
+    private void writeSubscriptionsSnapshot() {
+        try {
+            SubscriptionsSnapshot snapshot = subscriptions.snapshot();
+            snapshot.write(m_subscriptionsSnapshot);
+            //the snapshot on disk covers the changes recorded up to its sequence
+            m_sessionsStore.pruneSubscriptionsChanges(snapshot.getSequence());
+            LOG.debug("Written the snapshot of {} subscriptions", snapshot.getSubscriptions().size());
+        } catch (IOException | RuntimeException ex) {
+            LOG.error("Can't write the subscriptions snapshot " + m_subscriptionsSnapshot, ex);
+        }
+    }
+
     public List<Subscription> getSubscriptions() {
         return m_sessionsStore.getSubscriptions();
     }
 
+    /**
+     * @return the counters of the subscriptions store, the latency of the matches covers the ones since
+     * the previous call.
+     * */
+    public SubscriptionsMetrics getSubscriptionsMetrics() {
+        return subscriptions.computeMetrics();
+    }
+
     public void shutdown() {
-        this.m_mapStorage.close();
+        SubscriptionsMetrics metrics = subscriptions.computeMetrics();
+        LOG.info("Subscriptions matches cache hits {}, misses {}", metrics.matchesCacheHits(),
+                metrics.matchesCacheMisses());
+        LOG.info("Subscriptions {}, with wildcards {}", metrics.subscriptions(), metrics.wildcardSubscriptions());
+        LOG.info("Subscriptions tree nodes {}, empty nodes {}, max depth {}, widest fan out {}, CAS retries {}",
+                metrics.nodes(), subscriptions.emptyNodesCount(), metrics.maxDepth(), metrics.widestFanOut(),
+                metrics.casRetries());
+        LOG.info("Subscriptions matches latency p50 {} ns, p99 {} ns, max {} ns",
+                metrics.matchesLatency().getValueAtPercentile(50), metrics.matchesLatency().getValueAtPercentile(99),
+                metrics.matchesLatency().getMaxValue());
+        LOG.info("QoS 0 publishes dropped without subscribers {}", m_processor.droppedEarlyPublishes());
+        if (m_subscriptionsScheduler != null) {
+            m_subscriptionsScheduler.shutdown();
+            try {
+                //let a running snapshot finish before writing the last one
+                m_subscriptionsScheduler.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (m_subscriptionsSnapshot != null) {
+                writeSubscriptionsSnapshot();
+            }
+        } finally {
+            this.m_mapStorage.close();
+        }
     }
 }
@@ -1,16 +1,20 @@
 package io.moquette.spi.impl;
 
+import io.moquette.parser.netty.DecodedPublishMessage;
 import io.moquette.parser.proto.messages.PublishMessage;
 import io.moquette.server.netty.NettyUtils;
 import io.moquette.spi.IMessagesStore;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
 import io.moquette.spi.security.IAuthorizator;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.moquette.spi.impl.ProtocolProcessor.asStoredMessage;
 
@@ -23,46 +27,71 @@ class Qos0PublishHandler {
     private final IMessagesStore m_messagesStore;
     private final BrokerInterceptor m_interceptor;
     private final MessagesPublisher publisher;
+    //forward the topic of the decoded publishes as read from their frames
+    private final boolean m_publishForwarding;
+    //publishes dropped before copying the message, because nobody is subscribed to their topic
+    private final AtomicLong m_droppedEarly = new AtomicLong();
 
     public Qos0PublishHandler(IAuthorizator authorizator, SubscriptionsStore subscriptions,
                               IMessagesStore messagesStore, BrokerInterceptor interceptor,
-                              MessagesPublisher messagesPublisher) {
+                              MessagesPublisher messagesPublisher, boolean publishForwarding) {
         this.m_authorizator = authorizator;
         this.subscriptions = subscriptions;
         this.m_messagesStore = messagesStore;
         this.m_interceptor = interceptor;
         this.publisher = messagesPublisher;
+        this.m_publishForwarding = publishForwarding;
     }
 
-    void receivedPublishQos0(Channel channel, PublishMessage msg) {
+    void receivedPublishQos0(Channel channel, PublishMessage msg, Topic topic) {
         //verify if topic can be write
-        final String topic = msg.getTopicName();
-        if (checkWriteOnTopic(topic, channel)) {
+        if (checkWriteOnTopic(topic.toString(), channel)) {
             return;
         }
 
-        //route message to subscribers
-        IMessagesStore.StoredMessage toStoreMsg = asStoredMessage(msg);
+        if (!msg.isRetainFlag() && !subscriptions.mayMatch(topic)) {
+            m_droppedEarly.incrementAndGet();
+            LOG.debug("no subscribers for topic {}, dropping the publish", topic);
+            m_interceptor.notifyTopicPublished(msg, NettyUtils.clientID(channel), NettyUtils.userName(channel));
+            return;
+        }
+
+        //route message to subscribers, the message to forward is built only if someone receives it
         String clientID = NettyUtils.clientID(channel);
-        toStoreMsg.setClientID(clientID);
+        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
+        if (topicMatchingSubscriptions.isEmpty()) {
+            m_droppedEarly.incrementAndGet();
+            LOG.debug("no subscriptions match the topic {}, dropping the publish", topic);
+        } else {
+            IMessagesStore.StoredMessage toStoreMsg = asStoredMessage(msg);
+            toStoreMsg.setClientID(clientID);
 
-        LOG.debug("publish2Subscribers republishing to existing subscribers that matches the topic {}", topic);
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("content <{}>", DebugUtils.payload2Str(toStoreMsg.getMessage()));
-            LOG.trace("subscription tree {}", subscriptions.dumpTree());
+            LOG.debug("publish2Subscribers republishing to existing subscribers that matches the topic {}", topic);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("content <{}>", DebugUtils.payload2Str(toStoreMsg.getMessage()));
+                LOG.trace("subscription tree {}", subscriptions.dumpTree());
+            }
+            ByteBuf encodedTopicName = m_publishForwarding && msg instanceof DecodedPublishMessage
+                    ? ((DecodedPublishMessage) msg).encodedTopicName() : null;
+            this.publisher.publish2Subscribers(toStoreMsg, encodedTopicName, topicMatchingSubscriptions);
         }
-        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
-        this.publisher.publish2Subscribers(toStoreMsg, topicMatchingSubscriptions);
 
         if (msg.isRetainFlag()) {
             //QoS == 0 && retain => clean old retained
-            m_messagesStore.cleanRetained(topic);
+            m_messagesStore.cleanRetained(topic.toString());
         }
 
         String username = NettyUtils.userName(channel);
         m_interceptor.notifyTopicPublished(msg, clientID, username);
     }
 
+    /**
+     * @return the number of publishes dropped because no subscription could match their topic.
+     * */
+    long droppedEarly() {
+        return m_droppedEarly.get();
+    }
+
     boolean checkWriteOnTopic(String topic, Channel channel) {
         String clientID = NettyUtils.clientID(channel);
         String username = NettyUtils.userName(channel);
@@ -1,5 +1,6 @@
 package io.moquette.spi.impl;
 
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.messages.PubAckMessage;
 import io.moquette.parser.proto.messages.PublishMessage;
 import io.moquette.server.ConnectionDescriptor;
@@ -8,6 +9,7 @@ import io.moquette.spi.IMessagesStore;
 import io.moquette.spi.MessageGUID;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
 import io.moquette.spi.security.IAuthorizator;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
@@ -28,11 +30,12 @@ class Qos1PublishHandler {
     private final ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors;
     private final String brokerPort;
     private final MessagesPublisher publisher;
+    private final MessagesPool m_messagesPool;
 
     public Qos1PublishHandler(IAuthorizator authorizator, SubscriptionsStore subscriptions,
                               IMessagesStore messagesStore, BrokerInterceptor interceptor,
                               ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors,
-                              String brokerPort, MessagesPublisher messagesPublisher) {
+                              String brokerPort, MessagesPublisher messagesPublisher, MessagesPool messagesPool) {
         this.m_authorizator = authorizator;
         this.subscriptions = subscriptions;
         this.m_messagesStore = messagesStore;
@@ -40,27 +43,35 @@ class Qos1PublishHandler {
         this.connectionDescriptors = connectionDescriptors;
         this.brokerPort = brokerPort;
         this.publisher = messagesPublisher;
+        this.m_messagesPool = messagesPool;
     }
 
-    void receivedPublishQos1(Channel channel, PublishMessage msg) {
+    void receivedPublishQos1(Channel channel, PublishMessage msg, Topic topic) {
         //verify if topic can be write
-        final String topic = msg.getTopicName();
-        if (checkWriteOnTopic(topic, channel)) {
+        if (checkWriteOnTopic(topic.toString(), channel)) {
             return;
         }
 
-        //route message to subscribers
-        IMessagesStore.StoredMessage toStoreMsg = asStoredMessage(msg);
+        //route message to subscribers, the payload is copied only if the message is forwarded or retained
         String clientID = NettyUtils.clientID(channel);
-        toStoreMsg.setClientID(clientID);
+        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
+        boolean storeRetained = msg.isRetainFlag() && msg.getPayload().hasRemaining();
+        IMessagesStore.StoredMessage toStoreMsg = null;
+        if (!topicMatchingSubscriptions.isEmpty() || storeRetained) {
+            toStoreMsg = asStoredMessage(msg);
+            toStoreMsg.setClientID(clientID);
+        }
 
-        LOG.debug("publish2Subscribers_qos1 republishing to existing subscribers that matches the topic {}", topic);
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("content <{}>", DebugUtils.payload2Str(toStoreMsg.getMessage()));
-            LOG.trace("subscription tree {}", subscriptions.dumpTree());
+        if (topicMatchingSubscriptions.isEmpty()) {
+            LOG.debug("no subscriptions match the topic {}, the publish isn't forwarded", topic);
+        } else {
+            LOG.debug("publish2Subscribers_qos1 republishing to existing subscribers that matches the topic {}", topic);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("content <{}>", DebugUtils.payload2Str(toStoreMsg.getMessage()));
+                LOG.trace("subscription tree {}", subscriptions.dumpTree());
+            }
+            this.publisher.publish2Subscribers(toStoreMsg, topicMatchingSubscriptions);
         }
-        List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
-        this.publisher.publish2Subscribers(toStoreMsg, topicMatchingSubscriptions);
 
         //send PUBACK
         final Integer messageID = msg.getMessageID();
@@ -70,12 +81,12 @@ class Qos1PublishHandler {
         LOG.info("server {} replying with PubAck to MSG ID {}", brokerPort, messageID);
 
         if (msg.isRetainFlag()) {
-            if (!msg.getPayload().hasRemaining()) {
-                m_messagesStore.cleanRetained(topic);
+            if (!storeRetained) {
+                m_messagesStore.cleanRetained(topic.toString());
             } else {
                 //before wasn't stored
                 MessageGUID guid = m_messagesStore.storePublishForFuture(toStoreMsg);
-                m_messagesStore.storeRetained(topic, guid);
+                m_messagesStore.storeRetained(topic.toString(), guid);
             }
         }
 
@@ -95,7 +106,7 @@ class Qos1PublishHandler {
 
     private void sendPubAck(String clientId, int messageID) {
         LOG.trace("sendPubAck invoked");
-        PubAckMessage pubAckMessage = new PubAckMessage();
+        PubAckMessage pubAckMessage = m_messagesPool.pubAck();
         pubAckMessage.setMessageID(messageID);
 
         try {
@@ -1,5 +1,6 @@
 package io.moquette.spi.impl;
 
+import io.moquette.parser.netty.MessagesPool;
 import io.moquette.parser.proto.messages.*;
 import io.moquette.server.ConnectionDescriptor;
 import io.moquette.server.netty.NettyUtils;
@@ -9,6 +10,7 @@ import io.moquette.spi.ISessionsStore;
 import io.moquette.spi.MessageGUID;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
 import io.moquette.spi.security.IAuthorizator;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
@@ -31,11 +33,13 @@ class Qos2PublishHandler {
     private final ISessionsStore m_sessionsStore;
     private final String brokerPort;
     private final MessagesPublisher publisher;
+    private final MessagesPool m_messagesPool;
 
     public Qos2PublishHandler(IAuthorizator authorizator, SubscriptionsStore subscriptions,
                               IMessagesStore messagesStore, BrokerInterceptor interceptor,
                               ConcurrentMap<String, ConnectionDescriptor> connectionDescriptors,
-                              ISessionsStore sessionsStore, String brokerPort, MessagesPublisher messagesPublisher) {
+                              ISessionsStore sessionsStore, String brokerPort, MessagesPublisher messagesPublisher,
+                              MessagesPool messagesPool) {
         this.m_authorizator = authorizator;
         this.subscriptions = subscriptions;
         this.m_messagesStore = messagesStore;
@@ -44,13 +48,13 @@ class Qos2PublishHandler {
         this.m_sessionsStore = sessionsStore;
         this.brokerPort = brokerPort;
         this.publisher = messagesPublisher;
+        this.m_messagesPool = messagesPool;
     }
 
-    void receivedPublishQos2(Channel channel, PublishMessage msg) {
+    void receivedPublishQos2(Channel channel, PublishMessage msg, Topic topic) {
         final AbstractMessage.QOSType qos = AbstractMessage.QOSType.EXACTLY_ONCE;
-        final String topic = msg.getTopicName();
         //check if the topic can be wrote
-        if (checkWriteOnTopic(topic, channel)) {
+        if (checkWriteOnTopic(topic.toString(), channel)) {
             return;
         }
         final Integer messageID = msg.getMessageID();
@@ -69,9 +73,9 @@ class Qos2PublishHandler {
 
         if (msg.isRetainFlag()) {
             if (!msg.getPayload().hasRemaining()) {
-                m_messagesStore.cleanRetained(topic);
+                m_messagesStore.cleanRetained(topic.toString());
             } else {
-                m_messagesStore.storeRetained(topic, guid);
+                m_messagesStore.storeRetained(topic.toString(), guid);
             }
         }
         String username = NettyUtils.userName(channel);
@@ -88,7 +92,7 @@ class Qos2PublishHandler {
         LOG.debug("PUB --PUBREL--> SRV processPubRel invoked for clientID {} ad messageID {}", clientID, messageID);
         ClientSession targetSession = m_sessionsStore.sessionForClient(clientID);
         IMessagesStore.StoredMessage evt = targetSession.storedMessage(messageID);
-        final String topic = evt.getTopic();
+        final Topic topic = Topic.asTopic(evt.getTopic());
         List<Subscription> topicMatchingSubscriptions = subscriptions.matches(topic);
         LOG.debug("publish2Subscribers republishing to existing subscribers that matches the topic {}", topic);
         if (LOG.isTraceEnabled()) {
@@ -99,9 +103,9 @@ class Qos2PublishHandler {
 
         if (evt.isRetained()) {
             if (!evt.getMessage().hasRemaining()) {
-                m_messagesStore.cleanRetained(topic);
+                m_messagesStore.cleanRetained(topic.toString());
             } else {
-                m_messagesStore.storeRetained(topic, evt.getGuid());
+                m_messagesStore.storeRetained(topic.toString(), evt.getGuid());
             }
         }
 
@@ -120,14 +124,14 @@ class Qos2PublishHandler {
 
     private void sendPubRec(String clientID, int messageID) {
         LOG.trace("PUB <--PUBREC-- SRV sendPubRec invoked for clientID {} with messageID {}", clientID, messageID);
-        PubRecMessage pubRecMessage = new PubRecMessage();
+        PubRecMessage pubRecMessage = m_messagesPool.pubRec();
         pubRecMessage.setMessageID(messageID);
         connectionDescriptors.get(clientID).channel.writeAndFlush(pubRecMessage);
     }
 
     private void sendPubComp(String clientID, int messageID) {
         LOG.debug("PUB <--PUBCOMP-- SRV sendPubComp invoked for clientID {} ad messageID {}", clientID, messageID);
-        PubCompMessage pubCompMessage = new PubCompMessage();
+        PubCompMessage pubCompMessage = m_messagesPool.pubComp();
         pubCompMessage.setMessageID(messageID);
         connectionDescriptors.get(clientID).channel.writeAndFlush(pubCompMessage);
     }
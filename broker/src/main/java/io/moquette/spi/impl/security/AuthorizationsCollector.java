@@ -15,7 +15,7 @@
  */
 package io.moquette.spi.impl.security;
 
-import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.TopicMatcher;
 import io.moquette.spi.security.IAuthorizator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -127,7 +127,7 @@ class AuthorizationsCollector implements IAuthorizator {
             for (Authorization auth : m_patternAuthorizations) {
                 String substitutedTopic = auth.topic.replace("%c", client).replace("%u", username);
                 if (auth.grant(permission)) {
-                    if (SubscriptionsStore.matchTopics(topic, substitutedTopic)) {
+                    if (TopicMatcher.matches(topic, substitutedTopic)) {
                         return true;
                     }
                 }
@@ -148,7 +148,7 @@ class AuthorizationsCollector implements IAuthorizator {
     private boolean matchACL(List<Authorization> auths, String topic, Authorization.Permission permission) {
         for (Authorization auth : auths) {
             if (auth.grant(permission)) {
-                if (SubscriptionsStore.matchTopics(topic, auth.topic)) {
+                if (TopicMatcher.matches(topic, auth.topic)) {
                     return true;
                 }
             }
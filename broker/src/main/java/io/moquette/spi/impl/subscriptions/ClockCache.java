@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache with the clock (second chance) replacement policy, the lookups don't take any lock and
+ * only mark the entry as referenced, the insertions of new keys are serialized and evict the first entry
+ * found not referenced since the clock hand last passed over it.
+ *
+ * @author andrea
+ */
+class ClockCache<K, V> {
+
+    private static final class Entry<K, V> {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentMap<K, Entry<K, V>> m_entries = new ConcurrentHashMap<>();
+    //slots of the clock, guarded by this
+    private final Entry<K, V>[] m_clock;
+    private int m_hand;
+
+    /**
+     * @param capacity max number of entries, 0 disables the cache.
+     * */
+    @SuppressWarnings("unchecked")
+    ClockCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative cache capacity " + capacity);
+        }
+        m_clock = new Entry[capacity];
+    }
+
+    V get(K key) {
+        Entry<K, V> entry = m_entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Cache the value, unless another one is already cached for the same key.
+     *
+     * @return the value cached for the key.
+     * */
+    synchronized V putIfAbsent(K key, V value) {
+        Entry<K, V> existing = m_entries.get(key);
+        if (existing != null) {
+            return existing.value;
+        }
+        insert(key, value);
+        return value;
+    }
+
+    /**
+     * Cache the value, replacing the one cached for the same key. Replacing the value of a cached key doesn't
+     * take any lock, a replacement racing with the eviction of the key can be lost.
+     * */
+    void put(K key, V value) {
+        Entry<K, V> existing = m_entries.get(key);
+        if (existing != null) {
+            existing.value = value;
+            return;
+        }
+        synchronized (this) {
+            existing = m_entries.get(key);
+            if (existing != null) {
+                existing.value = value;
+                return;
+            }
+            insert(key, value);
+        }
+    }
+
+    private void insert(K key, V value) {
+        if (m_clock.length == 0) {
+            return;
+        }
+        //move the hand past the referenced entries, giving them a second chance
+        Entry<K, V> victim = m_clock[m_hand];
+        while (victim != null && victim.referenced) {
+            victim.referenced = false;
+            m_hand = (m_hand + 1) % m_clock.length;
+            victim = m_clock[m_hand];
+        }
+        if (victim != null) {
+            m_entries.remove(victim.key);
+        }
+        Entry<K, V> entry = new Entry<>(key, value);
+        m_clock[m_hand] = entry;
+        m_hand = (m_hand + 1) % m_clock.length;
+        m_entries.put(key, entry);
+    }
+
+    int size() {
+        return m_entries.size();
+    }
+
+    int capacity() {
+        return m_clock.length;
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import io.moquette.spi.ISessionsStore.ClientTopicCouple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Subscriptions tree updated in place, node by node, with compare and set, so that subscribes and
+ * unsubscribes on different paths don't compete on a single root swap like in the copy on write tree.
+ *
+ * Children are published with putIfAbsent (or a CAS for the wildcard slots) and the subscriptions of a node
+ * are an immutable SubscriptionsSet replaced as a whole, so readers walk the tree without locks and always see every node
+ * either before or after a change, never in the middle of it.
+ *
+ * Empty nodes are pruned retiring them first: a retired node has the RETIRED subscriptions marker, it can't be
+ * updated anymore and is then unlinked from its parent. Who finds a retired node on its path, or after its update
+ * can't reach the updated node from the root anymore, repeats the operation from the root.
+ *
+ * @author andrea
+ */
+class ConcurrentTree {
+
+    static final class Node {
+
+        private static final AtomicReferenceFieldUpdater<Node, Node> SINGLE_WILDCARD_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "m_singleWildcardChild");
+        private static final AtomicReferenceFieldUpdater<Node, Node> MULTI_WILDCARD_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "m_multiWildcardChild");
+        private static final AtomicReferenceFieldUpdater<Node, Object> SUBSCRIPTIONS_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "m_subscriptions");
+        //marker of the retired nodes, compared by identity
+        private static final Object RETIRED = new Object();
+
+        final Token m_token;
+        final ConcurrentMap<Token, Node> m_children = new ConcurrentHashMap<>();
+        volatile Node m_singleWildcardChild;
+        volatile Node m_multiWildcardChild;
+        //a SubscriptionsSet never modified, replaced with an updated copy on every change
+        volatile Object m_subscriptions;
+
+        Node(Token token) {
+            m_token = token;
+        }
+
+        Node child(Token token) {
+            if (token == Token.SINGLE) {
+                return m_singleWildcardChild;
+            }
+            if (token == Token.MULTI) {
+                return m_multiWildcardChild;
+            }
+            return m_children.get(token);
+        }
+
+        /**
+         * Return the child with the token, creating it if missing. When two threads race to create it
+         * both get the node published by the winner.
+         *
+         * @param depth the depth of the child, the root is at 0.
+         * */
+        Node childOrCreate(Token token, TreeStats stats, int depth) {
+            while (true) {
+                Node child = child(token);
+                if (child != null) {
+                    return child;
+                }
+                Node newChild = new Node(token);
+                boolean created;
+                if (token == Token.SINGLE) {
+                    created = SINGLE_WILDCARD_UPDATER.compareAndSet(this, null, newChild);
+                } else if (token == Token.MULTI) {
+                    created = MULTI_WILDCARD_UPDATER.compareAndSet(this, null, newChild);
+                } else {
+                    Node existing = m_children.putIfAbsent(token, newChild);
+                    if (existing != null) {
+                        return existing;
+                    }
+                    created = true;
+                }
+                if (created) {
+                    stats.nodesAdded(depth, 1);
+                    stats.fanOut(childrenCount());
+                    return newChild;
+                }
+                //lost the race on the wildcard slot, the winner could be already pruned so read it again
+                stats.casRetry();
+            }
+        }
+
+        /**
+         * @return true if the child was unlinked by this call.
+         * */
+        boolean removeChild(Node child) {
+            Token token = child.m_token;
+            if (token == Token.SINGLE) {
+                return SINGLE_WILDCARD_UPDATER.compareAndSet(this, child, null);
+            } else if (token == Token.MULTI) {
+                return MULTI_WILDCARD_UPDATER.compareAndSet(this, child, null);
+            } else {
+                return m_children.remove(token, child);
+            }
+        }
+
+        int childrenCount() {
+            int count = m_children.size();
+            if (m_singleWildcardChild != null) {
+                count++;
+            }
+            if (m_multiWildcardChild != null) {
+                count++;
+            }
+            return count;
+        }
+
+        boolean hasChildren() {
+            return !m_children.isEmpty() || m_singleWildcardChild != null || m_multiWildcardChild != null;
+        }
+
+        boolean isRetired() {
+            return m_subscriptions == RETIRED;
+        }
+
+        boolean isEmpty() {
+            return m_subscriptions == null && !hasChildren();
+        }
+
+        /**
+         * Retire the node if it's empty. The children are checked again once retired, because a child could
+         * have been linked meanwhile, in that case the node is brought back.
+         *
+         * @return true if the node is retired and can be unlinked from its parent.
+         * */
+        boolean tryRetire() {
+            if (m_subscriptions != null || hasChildren()) {
+                return false;
+            }
+            if (!SUBSCRIPTIONS_UPDATER.compareAndSet(this, null, RETIRED)) {
+                return false;
+            }
+            if (hasChildren()) {
+                SUBSCRIPTIONS_UPDATER.compareAndSet(this, RETIRED, null);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Add the subscription, if the client is already subscribed keeps the greatest QoS.
+         *
+         * @return false if the node is retired.
+         * */
+        boolean addSubscription(Subscription s, TreeStats stats) {
+            while (true) {
+                Object current = m_subscriptions;
+                if (current == RETIRED) {
+                    return false;
+                }
+                Subscription existing = SubscriptionsSet.get(current, s.clientId, s.topicFilter);
+                if (existing != null && existing.requestedQos.byteValue() >= s.requestedQos.byteValue()) {
+                    return true;
+                }
+                Object updated = SubscriptionsSet.put(SubscriptionsSet.copy(current), s);
+                if (SUBSCRIPTIONS_UPDATER.compareAndSet(this, current, updated)) {
+                    return true;
+                }
+                stats.casRetry();
+            }
+        }
+
+        /**
+         * @return false if the node is retired.
+         * */
+        boolean remove(ClientTopicCouple couple, TreeStats stats) {
+            while (true) {
+                Object current = m_subscriptions;
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (SubscriptionsSet.get(current, couple.clientID, couple.topicFilter) == null) {
+                    return true;
+                }
+                Object updated = SubscriptionsSet.remove(SubscriptionsSet.copy(current), couple.clientID,
+                        couple.topicFilter);
+                if (SUBSCRIPTIONS_UPDATER.compareAndSet(this, current, updated)) {
+                    return true;
+                }
+                stats.casRetry();
+            }
+        }
+
+        /**
+         * Same matching rules of {@link TreeNode#matches(List, int, List)}.
+         * */
+        void matches(List<Token> tokens, int index, List<Subscription> matchingSubs) {
+            //read every volatile field once, so the node is seen in a single state
+            final Node singleWildcardChild = m_singleWildcardChild;
+            final Node multiWildcardChild = m_multiWildcardChild;
+            if (index == tokens.size()) {
+                addSubscriptionsTo(matchingSubs);
+                if (multiWildcardChild != null) {
+                    multiWildcardChild.addSubscriptionsTo(matchingSubs);
+                }
+                if (singleWildcardChild != null) {
+                    singleWildcardChild.addSubscriptionsTo(matchingSubs);
+                }
+                return;
+            }
+
+            if (m_token == Token.MULTI) {
+                addSubscriptionsTo(matchingSubs);
+                return;
+            }
+
+            Token t = tokens.get(index);
+            //wildcards in a published topic doesn't match anything
+            if (t == Token.MULTI || t == Token.SINGLE) {
+                return;
+            }
+
+            Node literalChild = m_children.get(t);
+            if (literalChild != null) {
+                literalChild.matches(tokens, index + 1, matchingSubs);
+            }
+            if (singleWildcardChild != null) {
+                singleWildcardChild.matches(tokens, index + 1, matchingSubs);
+            }
+            if (multiWildcardChild != null) {
+                multiWildcardChild.matches(tokens, index + 1, matchingSubs);
+            }
+        }
+
+        private void addSubscriptionsTo(List<Subscription> target) {
+            Object subscriptions = m_subscriptions;
+            if (subscriptions != RETIRED) {
+                SubscriptionsSet.addTo(subscriptions, target);
+            }
+        }
+
+        /**
+         * Prune the empty nodes below this one.
+         *
+         * @param depth the depth of this node, the root is at 0.
+         * @return the greatest number of children of the nodes left in the subtree.
+         * */
+        int compact(int depth, TreeStats stats) {
+            int widestFanOut = 0;
+            for (Node child : children()) {
+                widestFanOut = Math.max(widestFanOut, child.compact(depth + 1, stats));
+                if (child.tryRetire() && removeChild(child)) {
+                    stats.nodesRemoved(depth + 1, 1);
+                }
+            }
+            return Math.max(widestFanOut, childrenCount());
+        }
+
+        List<Node> children() {
+            List<Node> all = new ArrayList<>(m_children.values());
+            Node singleWildcardChild = m_singleWildcardChild;
+            if (singleWildcardChild != null) {
+                all.add(singleWildcardChild);
+            }
+            Node multiWildcardChild = m_multiWildcardChild;
+            if (multiWildcardChild != null) {
+                all.add(multiWildcardChild);
+            }
+            return all;
+        }
+
+        void countNodes(int[] result) {
+            for (Node child : children()) {
+                result[0]++;
+                if (child.isEmpty()) {
+                    result[1]++;
+                }
+                child.countNodes(result);
+            }
+        }
+
+        void collect(List<Subscription> all) {
+            addSubscriptionsTo(all);
+            for (Node child : m_children.values()) {
+                child.collect(all);
+            }
+            Node singleWildcardChild = m_singleWildcardChild;
+            if (singleWildcardChild != null) {
+                singleWildcardChild.collect(all);
+            }
+            Node multiWildcardChild = m_multiWildcardChild;
+            if (multiWildcardChild != null) {
+                multiWildcardChild.collect(all);
+            }
+        }
+    }
+
+    private volatile Node m_root = new Node(null);
+    private final TreeStats m_stats = new TreeStats();
+
+    void add(List<Token> tokens, Subscription sub) {
+        while (true) {
+            Node current = m_root;
+            int depth = 0;
+            for (Token token : tokens) {
+                current = current.childOrCreate(token, m_stats, ++depth);
+            }
+            if (current.addSubscription(sub, m_stats) && reachable(tokens, current)) {
+                return;
+            }
+            //a node of the path was pruned meanwhile
+            m_stats.casRetry();
+        }
+    }
+
+    void remove(List<Token> tokens, ClientTopicCouple couple) {
+        while (true) {
+            Node current = find(tokens);
+            if (current == null) {
+                return;
+            }
+            if (current.remove(couple, m_stats) && reachable(tokens, current)) {
+                prune(tokens);
+                return;
+            }
+            //a node of the path was pruned meanwhile
+            m_stats.casRetry();
+        }
+    }
+
+    /**
+     * @return the node on the path of the tokens, null if missing.
+     * */
+    Node find(List<Token> tokens) {
+        Node current = m_root;
+        for (Token token : tokens) {
+            current = current.child(token);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return true if the node is still linked on the path of the tokens and none of the path is retired.
+     * Once true, the node can't be pruned anymore till it has subscriptions, and so its ancestors.
+     * */
+    private boolean reachable(List<Token> tokens, Node node) {
+        Node current = m_root;
+        for (Token token : tokens) {
+            if (current.isRetired()) {
+                return false;
+            }
+            current = current.child(token);
+            if (current == null) {
+                return false;
+            }
+        }
+        return current == node && !current.isRetired();
+    }
+
+    /**
+     * Unlink the empty nodes of the path, from the deepest up.
+     * */
+    private void prune(List<Token> tokens) {
+        Node[] path = new Node[tokens.size() + 1];
+        path[0] = m_root;
+        int depth = 0;
+        for (Token token : tokens) {
+            Node child = path[depth].child(token);
+            if (child == null) {
+                break;
+            }
+            path[++depth] = child;
+        }
+        for (int i = depth; i > 0; i--) {
+            if (!path[i].tryRetire()) {
+                return;
+            }
+            if (path[i - 1].removeChild(path[i])) {
+                m_stats.nodesRemoved(i, 1);
+            }
+        }
+    }
+
+    void matches(List<Token> tokens, List<Subscription> matchingSubs) {
+        m_root.matches(tokens, 0, matchingSubs);
+    }
+
+    /**
+     * @return all the subscriptions in the tree.
+     * */
+    List<Subscription> subscriptions() {
+        List<Subscription> all = new ArrayList<>();
+        m_root.collect(all);
+        return all;
+    }
+
+    int size() {
+        return subscriptions().size();
+    }
+
+    /**
+     * Prune all the empty nodes.
+     * */
+    void compact() {
+        m_stats.resetFanOut(m_root.compact(0, m_stats));
+    }
+
+    TreeStats stats() {
+        return m_stats;
+    }
+
+    /**
+     * @return the number of nodes below the root in [0] and of the empty ones in [1].
+     * */
+    int[] countNodes() {
+        int[] result = new int[2];
+        m_root.countNodes(result);
+        return result;
+    }
+
+    /**
+     * Drop all the subscriptions, concurrent updates could be applied to the discarded tree.
+     * */
+    void clear() {
+        m_root = new Node(null);
+        m_stats.clear();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import io.moquette.spi.ISessionsStore.ClientTopicCouple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Subscriptions to the topic filters without wildcards, indexed by the filter itself: the topics matching
+ * them are only the equal ones, so they are found with a single lookup instead of walking the tree.
+ *
+ * The subscriptions of a filter are a SubscriptionsSet never modified once published, updates are serialized
+ * and replace it with an updated copy, so matching doesn't lock.
+ *
+ * @author andrea
+ */
+final class LiteralFiltersIndex {
+
+    //matching filter -> its subscriptions
+    private final ConcurrentMap<String, Object> m_subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if the subscriptions to the topic filter are kept in this index. Filters ending with
+     * the separator stay in the tree, because the tokenization makes them match more than the equal topic.
+     * */
+    static boolean isLiteral(String matchingFilter) {
+        return !matchingFilter.isEmpty()
+                && !matchingFilter.endsWith("/")
+                && matchingFilter.indexOf('+') == -1
+                && matchingFilter.indexOf('#') == -1;
+    }
+
+    /**
+     * Add the subscription, if the client is already subscribed keeps the greatest QoS.
+     * */
+    synchronized void add(String matchingFilter, Subscription s) {
+        Object current = m_subscriptions.get(matchingFilter);
+        Subscription existing = SubscriptionsSet.get(current, s.clientId, s.topicFilter);
+        if (existing != null && existing.requestedQos.byteValue() >= s.requestedQos.byteValue()) {
+            return;
+        }
+        m_subscriptions.put(matchingFilter, SubscriptionsSet.put(SubscriptionsSet.copy(current), s));
+    }
+
+    /**
+     * @return true if the subscription was present.
+     * */
+    synchronized boolean remove(String matchingFilter, ClientTopicCouple couple) {
+        Object current = m_subscriptions.get(matchingFilter);
+        if (SubscriptionsSet.get(current, couple.clientID, couple.topicFilter) == null) {
+            return false;
+        }
+        Object updated = SubscriptionsSet.remove(SubscriptionsSet.copy(current), couple.clientID, couple.topicFilter);
+        if (updated == null) {
+            m_subscriptions.remove(matchingFilter);
+        } else {
+            m_subscriptions.put(matchingFilter, updated);
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        m_subscriptions.clear();
+    }
+
+    /**
+     * Add to matchingSubs the subscriptions to the filter equal to the topic.
+     * */
+    void matches(String topic, List<Subscription> matchingSubs) {
+        SubscriptionsSet.addTo(m_subscriptions.get(topic), matchingSubs);
+    }
+
+    List<Subscription> subscriptions() {
+        List<Subscription> all = new ArrayList<>();
+        for (Object subscriptions : m_subscriptions.values()) {
+            SubscriptionsSet.addTo(subscriptions, all);
+        }
+        return all;
+    }
+
+    int size() {
+        int size = 0;
+        for (Object subscriptions : m_subscriptions.values()) {
+            size += SubscriptionsSet.size(subscriptions);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the subscriptions matching a concrete topic, with the clock replacement policy so that
+ * the lookups of the event loops don't contend on a lock.
+ *
+ * Every entry is tagged with the version of the subscription tree it was computed on, and is
+ * considered stale as soon as the tree moves to another version.
+ *
+ * @author andrea
+ */
+class MatchesCache {
+
+    private static final class Entry {
+        final long version;
+        final List<Subscription> subscriptions;
+
+        Entry(long version, List<Subscription> subscriptions) {
+            this.version = version;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    private final ClockCache<Topic, Entry> m_entries;
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    MatchesCache(int capacity) {
+        m_entries = new ClockCache<>(capacity);
+    }
+
+    /**
+     * @return the cached subscriptions or null if not present or computed on a different tree version.
+     * */
+    List<Subscription> get(Topic topic, long version) {
+        Entry entry = m_entries.get(topic);
+        if (entry == null || entry.version != version) {
+            m_misses.incrementAndGet();
+            return null;
+        }
+        m_hits.incrementAndGet();
+        return entry.subscriptions;
+    }
+
+    void put(Topic topic, long version, List<Subscription> subscriptions) {
+        m_entries.put(topic, new Entry(version, subscriptions));
+    }
+
+    long hits() {
+        return m_hits.get();
+    }
+
+    long misses() {
+        return m_misses.get();
+    }
+}
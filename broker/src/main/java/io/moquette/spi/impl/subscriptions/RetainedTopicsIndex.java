@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tree of the topics that have a retained message, so that the ones matching a topic filter are found
+ * visiting only the matching branches instead of scanning all the retained topics.
+ *
+ * Updates are serialized, searches can run concurrently with them and see a topic added or removed
+ * concurrently or not. The nodes left without topics and children are unlinked on remove, so the tree
+ * doesn't keep the topics that aren't retained anymore.
+ *
+ * @author andrea
+ */
+public final class RetainedTopicsIndex {
+
+    private static final class Node {
+        final ConcurrentMap<Token, Node> m_children = new ConcurrentHashMap<>();
+        //the topic if it has a retained message, null otherwise
+        volatile String m_topic;
+
+        Node childOrCreate(Token token) {
+            Node child = m_children.get(token);
+            if (child != null) {
+                return child;
+            }
+            Node newChild = new Node();
+            child = m_children.putIfAbsent(token, newChild);
+            return child != null ? child : newChild;
+        }
+    }
+
+    private final Node m_root = new Node();
+
+    public synchronized void add(String topic) {
+        Topic parsed = new Topic(topic);
+        if (!parsed.isValid()) {
+            return;
+        }
+        Node current = m_root;
+        for (Token token : parsed.getTokens()) {
+            current = current.childOrCreate(token);
+        }
+        current.m_topic = topic;
+    }
+
+    public synchronized void remove(String topic) {
+        Topic parsed = new Topic(topic);
+        if (!parsed.isValid()) {
+            return;
+        }
+        List<Token> tokens = parsed.getTokens();
+        Node[] path = new Node[tokens.size() + 1];
+        path[0] = m_root;
+        for (int i = 0; i < tokens.size(); i++) {
+            path[i + 1] = path[i].m_children.get(tokens.get(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        path[tokens.size()].m_topic = null;
+        //prune the empty nodes bottom up
+        for (int i = tokens.size(); i > 0 && path[i].m_topic == null && path[i].m_children.isEmpty(); i--) {
+            path[i - 1].m_children.remove(tokens.get(i - 1), path[i]);
+        }
+    }
+
+    /**
+     * @return the number of nodes of the tree, root excluded.
+     * */
+    int nodesCount() {
+        return nodesCount(m_root) - 1;
+    }
+
+    private static int nodesCount(Node node) {
+        int count = 1;
+        for (Node child : node.m_children.values()) {
+            count += nodesCount(child);
+        }
+        return count;
+    }
+
+    /**
+     * @return the retained topics matching the topic filter, following the same rules of {@link Topic#match(Topic)}.
+     * */
+    public List<String> matching(String topicFilter) {
+        List<String> result = new ArrayList<>();
+        Topic filter = new Topic(topicFilter);
+        if (!filter.isValid()) {
+            return result;
+        }
+        matching(m_root, filter.getTokens(), 0, result);
+        return result;
+    }
+
+    private static void matching(Node node, List<Token> filter, int index, List<String> result) {
+        if (index == filter.size()) {
+            addTopic(node, result);
+            return;
+        }
+        Token token = filter.get(index);
+        if (token == Token.MULTI) {
+            //# matches also the parent level
+            collectAll(node, result);
+            return;
+        }
+        if (token == Token.SINGLE) {
+            //+ levels past the end of the topic are skipped if the filter ends with #, as Topic.match does
+            if (endsWithMulti(filter, index)) {
+                addTopic(node, result);
+            }
+            for (Node child : node.m_children.values()) {
+                matching(child, filter, index + 1, result);
+            }
+            return;
+        }
+        Node child = node.m_children.get(token);
+        if (child != null) {
+            matching(child, filter, index + 1, result);
+        }
+    }
+
+    /**
+     * @return true if the filter from index onward is made only by + levels followed by a #.
+     * */
+    private static boolean endsWithMulti(List<Token> filter, int index) {
+        for (int i = index; i < filter.size(); i++) {
+            Token token = filter.get(i);
+            if (token == Token.MULTI) {
+                return true;
+            }
+            if (token != Token.SINGLE) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void addTopic(Node node, List<String> result) {
+        String topic = node.m_topic;
+        if (topic != null) {
+            result.add(topic);
+        }
+    }
+
+    private static void collectAll(Node node, List<String> result) {
+        addTopic(node, result);
+        for (Node child : node.m_children.values()) {
+            collectAll(child, result);
+        }
+    }
+}
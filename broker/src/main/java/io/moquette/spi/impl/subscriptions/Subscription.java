@@ -40,6 +40,13 @@ public final class Subscription implements Serializable {
         this.active = true;
     }
 
+    /**
+     * Key to look up the subscription of the client to the topic filter in a set.
+     * */
+    Subscription(String clientId, String topicFilter) {
+        this(clientId, topicFilter, null);
+    }
+
     public Subscription(Subscription orig) {
         this.requestedQos = orig.requestedQos;
         this.clientId = orig.clientId;
@@ -47,6 +54,30 @@ public final class Subscription implements Serializable {
         this.active = orig.active;
     }
 
+    /**
+     * Many clients subscribe the same filters, the stored subscriptions share a single instance of the string
+     * among them.
+     *
+     * @return this subscription or a copy of it with the topic filter interned.
+     * */
+    Subscription interned() {
+        if (topicFilter == null) {
+            return this;
+        }
+        String internedFilter = topicFilter.intern();
+        if (internedFilter == topicFilter) {
+            return this;
+        }
+        return new Subscription(clientId, internedFilter, requestedQos);
+    }
+
+    /**
+     * Deserialization doesn't pass through the constructors, intern the filter of the read subscriptions too.
+     * */
+    private Object readResolve() {
+        return interned();
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Counters of the subscriptions store, see {@link SubscriptionsStore#computeMetrics()}.
+ *
+ * @author andrea
+ */
+public class SubscriptionsMetrics {
+    private final int m_subscriptions;
+    private final int m_wildcardSubscriptions;
+    private final int m_nodes;
+    private final int m_maxDepth;
+    private final int m_widestFanOut;
+    private final long m_casRetries;
+    private final long m_matchesCacheHits;
+    private final long m_matchesCacheMisses;
+    private final Histogram m_matchesLatency;
+
+    SubscriptionsMetrics(int subscriptions, int wildcardSubscriptions, int nodes, int maxDepth, int widestFanOut,
+                         long casRetries, long matchesCacheHits, long matchesCacheMisses, Histogram matchesLatency) {
+        m_subscriptions = subscriptions;
+        m_wildcardSubscriptions = wildcardSubscriptions;
+        m_nodes = nodes;
+        m_maxDepth = maxDepth;
+        m_widestFanOut = widestFanOut;
+        m_casRetries = casRetries;
+        m_matchesCacheHits = matchesCacheHits;
+        m_matchesCacheMisses = matchesCacheMisses;
+        m_matchesLatency = matchesLatency;
+    }
+
+    public int subscriptions() {
+        return m_subscriptions;
+    }
+
+    /**
+     * @return the subscriptions to filters with + or #.
+     * */
+    public int wildcardSubscriptions() {
+        return m_wildcardSubscriptions;
+    }
+
+    /**
+     * @return the nodes of the tree, the root excluded. The literal filters have no nodes.
+     * */
+    public int nodes() {
+        return m_nodes;
+    }
+
+    public int maxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * @return the greatest number of children of a node, measured since the last compaction.
+     * */
+    public int widestFanOut() {
+        return m_widestFanOut;
+    }
+
+    /**
+     * @return the compare and set of the changes to the tree that failed and were retried.
+     * */
+    public long casRetries() {
+        return m_casRetries;
+    }
+
+    public long matchesCacheHits() {
+        return m_matchesCacheHits;
+    }
+
+    public long matchesCacheMisses() {
+        return m_matchesCacheMisses;
+    }
+
+    /**
+     * @return the nanoseconds spent by the matches since the previous metrics were computed, sampled on the
+     * first of every 64 matches of each thread.
+     * */
+    public Histogram matchesLatency() {
+        return m_matchesLatency;
+    }
+}
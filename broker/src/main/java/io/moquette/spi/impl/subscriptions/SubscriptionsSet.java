@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact representation of the subscriptions stored on a tree node, kept in a single field: null when empty,
+ * the Subscription itself when there is only one, an array (filled from the start, null padded) up to
+ * {@link #MAX_ARRAY_SIZE} subscriptions and a map beyond. Subscriptions are equal when they have the same
+ * client and topic filter, so the map doesn't need a separate key object.
+ *
+ * The update methods return the set to store in place of the given one: arrays and maps are modified in
+ * place, use {@link #copy(Object)} before updating a set that is shared.
+ */
+final class SubscriptionsSet {
+
+    static final int MAX_ARRAY_SIZE = 8;
+
+    private SubscriptionsSet() {
+    }
+
+    /**
+     * @return a set that can be updated without affecting the given one.
+     * */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object set) {
+        if (set instanceof Subscription[]) {
+            return ((Subscription[]) set).clone();
+        }
+        if (set instanceof Map) {
+            return new HashMap<>((Map<Subscription, Subscription>) set);
+        }
+        //null and the single Subscription are never modified
+        return set;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Subscription get(Object set, String clientID, String topicFilter) {
+        if (set == null) {
+            return null;
+        }
+        if (set instanceof Subscription) {
+            Subscription single = (Subscription) set;
+            return sameKey(single, clientID, topicFilter) ? single : null;
+        }
+        if (set instanceof Subscription[]) {
+            for (Subscription sub : (Subscription[]) set) {
+                if (sub == null) {
+                    return null;
+                }
+                if (sameKey(sub, clientID, topicFilter)) {
+                    return sub;
+                }
+            }
+            return null;
+        }
+        return ((Map<Subscription, Subscription>) set).get(new Subscription(clientID, topicFilter));
+    }
+
+    /**
+     * Add the subscription with its topic filter interned, replacing the one of the same client and topic filter
+     * if present.
+     * */
+    @SuppressWarnings("unchecked")
+    static Object put(Object set, Subscription s) {
+        s = s.interned();
+        if (set == null) {
+            return s;
+        }
+        if (set instanceof Subscription) {
+            Subscription single = (Subscription) set;
+            if (sameKey(single, s.clientId, s.topicFilter)) {
+                return s;
+            }
+            Subscription[] array = new Subscription[4];
+            array[0] = single;
+            array[1] = s;
+            return array;
+        }
+        if (set instanceof Subscription[]) {
+            Subscription[] array = (Subscription[]) set;
+            int i = 0;
+            for (; i < array.length && array[i] != null; i++) {
+                if (sameKey(array[i], s.clientId, s.topicFilter)) {
+                    array[i] = s;
+                    return array;
+                }
+            }
+            if (i < array.length) {
+                array[i] = s;
+                return array;
+            }
+            if (array.length < MAX_ARRAY_SIZE) {
+                Subscription[] grown = Arrays.copyOf(array, MAX_ARRAY_SIZE);
+                grown[i] = s;
+                return grown;
+            }
+            Map<Subscription, Subscription> map = new HashMap<>();
+            for (Subscription sub : array) {
+                map.put(sub, sub);
+            }
+            map.put(s, s);
+            return map;
+        }
+        Map<Subscription, Subscription> map = (Map<Subscription, Subscription>) set;
+        //equal keys keep the old instance, so remove it to not retain the replaced subscription
+        map.remove(s);
+        map.put(s, s);
+        return map;
+    }
+
+    /**
+     * Remove the subscription of the client to the topic filter, if present.
+     * */
+    @SuppressWarnings("unchecked")
+    static Object remove(Object set, String clientID, String topicFilter) {
+        if (set == null) {
+            return null;
+        }
+        if (set instanceof Subscription) {
+            return sameKey((Subscription) set, clientID, topicFilter) ? null : set;
+        }
+        if (set instanceof Subscription[]) {
+            Subscription[] array = (Subscription[]) set;
+            int size = 0;
+            while (size < array.length && array[size] != null) {
+                size++;
+            }
+            for (int i = 0; i < size; i++) {
+                if (sameKey(array[i], clientID, topicFilter)) {
+                    System.arraycopy(array, i + 1, array, i, size - i - 1);
+                    array[size - 1] = null;
+                    size--;
+                    break;
+                }
+            }
+            if (size == 0) {
+                return null;
+            }
+            return size == 1 ? array[0] : array;
+        }
+        Map<Subscription, Subscription> map = (Map<Subscription, Subscription>) set;
+        map.remove(new Subscription(clientID, topicFilter));
+        return map.isEmpty() ? null : map;
+    }
+
+    @SuppressWarnings("unchecked")
+    static int size(Object set) {
+        if (set == null) {
+            return 0;
+        }
+        if (set instanceof Subscription) {
+            return 1;
+        }
+        if (set instanceof Subscription[]) {
+            Subscription[] array = (Subscription[]) set;
+            int size = 0;
+            while (size < array.length && array[size] != null) {
+                size++;
+            }
+            return size;
+        }
+        return ((Map<Subscription, Subscription>) set).size();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void addTo(Object set, Collection<Subscription> target) {
+        if (set == null) {
+            return;
+        }
+        if (set instanceof Subscription) {
+            target.add((Subscription) set);
+        } else if (set instanceof Subscription[]) {
+            for (Subscription sub : (Subscription[]) set) {
+                if (sub == null) {
+                    return;
+                }
+                target.add(sub);
+            }
+        } else {
+            target.addAll(((Map<Subscription, Subscription>) set).values());
+        }
+    }
+
+    private static boolean sameKey(Subscription sub, String clientID, String topicFilter) {
+        return sub.clientId.equals(clientID) && sub.topicFilter.equals(topicFilter);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import io.moquette.parser.proto.messages.AbstractMessage.QOSType;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of all the subscriptions, with the sequence number of the sessions store changes
+ * it includes, so that a restart loads it in one pass and replays only the newer changes.
+ *
+ * The format is: magic, format version, changes sequence number, the table of the distinct topic filters,
+ * then for each client its ID and the index in the table of its topic filters with their QoS.
+ *
+ * @author andrea
+ */
+public final class SubscriptionsSnapshot {
+
+    private static final int MAGIC = 0x4d515353;
+    private static final int FORMAT_VERSION = 1;
+
+    private final long m_sequence;
+    private final List<Subscription> m_subscriptions;
+
+    SubscriptionsSnapshot(long sequence, List<Subscription> subscriptions) {
+        m_sequence = sequence;
+        m_subscriptions = subscriptions;
+    }
+
+    /**
+     * @return the sequence number of the last change of the sessions store included in the snapshot.
+     * */
+    public long getSequence() {
+        return m_sequence;
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return m_subscriptions;
+    }
+
+    /**
+     * Write the snapshot to a temporary file, forced to disk and atomically moved over the previous snapshot
+     * at the end, so that it's replaced only by a complete and durable one.
+     * */
+    public void write(File file) throws IOException {
+        Map<String, List<Subscription>> byClient = new HashMap<>();
+        Map<String, Integer> filterIndexes = new LinkedHashMap<>();
+        for (Subscription sub : m_subscriptions) {
+            List<Subscription> clientSubscriptions = byClient.get(sub.clientId);
+            if (clientSubscriptions == null) {
+                clientSubscriptions = new ArrayList<>();
+                byClient.put(sub.clientId, clientSubscriptions);
+            }
+            clientSubscriptions.add(sub);
+            if (!filterIndexes.containsKey(sub.topicFilter)) {
+                filterIndexes.put(sub.topicFilter, filterIndexes.size());
+            }
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(m_sequence);
+            out.writeInt(filterIndexes.size());
+            for (String topicFilter : filterIndexes.keySet()) {
+                out.writeUTF(topicFilter);
+            }
+            out.writeInt(byClient.size());
+            for (Map.Entry<String, List<Subscription>> client : byClient.entrySet()) {
+                out.writeUTF(client.getKey());
+                out.writeInt(client.getValue().size());
+                for (Subscription sub : client.getValue()) {
+                    out.writeInt(filterIndexes.get(sub.topicFilter));
+                    out.writeByte(sub.requestedQos.byteValue());
+                }
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException if the file can't be read or it's not a complete snapshot.
+     * */
+    public static SubscriptionsSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a subscriptions snapshot");
+            }
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported subscriptions snapshot format " + formatVersion);
+            }
+            long sequence = in.readLong();
+            String[] topicFilters = new String[in.readInt()];
+            for (int i = 0; i < topicFilters.length; i++) {
+                topicFilters[i] = in.readUTF().intern();
+            }
+            int clients = in.readInt();
+            List<Subscription> subscriptions = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                String clientID = in.readUTF();
+                int clientSubscriptions = in.readInt();
+                for (int s = 0; s < clientSubscriptions; s++) {
+                    String topicFilter = topicFilters[in.readInt()];
+                    subscriptions.add(new Subscription(clientID, topicFilter, QOSType.valueOf(in.readByte())));
+                }
+            }
+            return new SubscriptionsSnapshot(sequence, subscriptions);
+        } catch (EOFException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException ex) {
+            throw new IOException("Truncated or corrupted subscriptions snapshot " + file, ex);
+        }
+    }
+}
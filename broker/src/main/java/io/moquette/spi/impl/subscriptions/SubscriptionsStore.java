@@ -17,11 +17,18 @@ package io.moquette.spi.impl.subscriptions;
 
 import java.text.ParseException;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import io.moquette.spi.ISessionsStore;
 import io.moquette.spi.ISessionsStore.ClientTopicCouple;
+import org.HdrHistogram.Recorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +39,26 @@ import org.slf4j.LoggerFactory;
  */
 public class SubscriptionsStore {
 
+    /**
+     * Implementation of the subscriptions tree.
+     * */
+    public enum TreeType {
+        //a single root swapped with compare and set, every change copies the path from the root
+        COPY_ON_WRITE,
+        //nodes updated in place with compare and set, see ConcurrentTree
+        CONCURRENT;
+
+        public static TreeType parse(String name) {
+            for (TreeType type : values()) {
+                if (type.name().equalsIgnoreCase(name.trim())) {
+                    return type;
+                }
+            }
+            LOG.warn("Unknown subscriptions tree type <{}>, using copy_on_write", name);
+            return COPY_ON_WRITE;
+        }
+    }
+
     public static class NodeCouple {
         final TreeNode root;
         final TreeNode createdNode;
@@ -42,12 +69,26 @@ public class SubscriptionsStore {
         }
     }
 
+    static final String SHARED_SUBSCRIPTION_PREFIX = "$share/";
+
     /**
      * Check if the topic filter of the subscription is well formed
      * */
     public static boolean validate(String topicFilter) {
+        if (isShared(topicFilter)) {
+            int groupEnd = topicFilter.indexOf('/', SHARED_SUBSCRIPTION_PREFIX.length());
+            if (groupEnd < 0 || groupEnd == SHARED_SUBSCRIPTION_PREFIX.length() || groupEnd == topicFilter.length() - 1) {
+                LOG.info("Bad shared subscription topic filter <{}>, expected $share/<group>/<filter>", topicFilter);
+                return false;
+            }
+            String group = topicFilter.substring(SHARED_SUBSCRIPTION_PREFIX.length(), groupEnd);
+            if (group.contains("+") || group.contains("#")) {
+                LOG.info("Bad shared subscription group name in <{}>", topicFilter);
+                return false;
+            }
+        }
         try {
-            parseTopic(topicFilter);
+            parseTopic(matchingFilter(topicFilter));
             return true;
         } catch (ParseException pex) {
             LOG.info("Bad matching topic filter <{}>", topicFilter);
@@ -55,6 +96,25 @@ public class SubscriptionsStore {
         }
     }
 
+    /**
+     * @return true if the topic filter is a shared subscription, in the form $share/&lt;group&gt;/&lt;filter&gt;.
+     * */
+    public static boolean isShared(String topicFilter) {
+        return topicFilter.startsWith(SHARED_SUBSCRIPTION_PREFIX);
+    }
+
+    /**
+     * @return the filter the topics are matched against, that is the topic filter itself or, for a shared
+     * subscription, the filter after the $share/&lt;group&gt;/ prefix.
+     * */
+    public static String matchingFilter(String topicFilter) {
+        if (!isShared(topicFilter)) {
+            return topicFilter;
+        }
+        int groupEnd = topicFilter.indexOf('/', SHARED_SUBSCRIPTION_PREFIX.length());
+        return groupEnd < 0 ? "" : topicFilter.substring(groupEnd + 1);
+    }
+
     public interface IVisitor<T> {
         void visit(TreeNode node, int deep);
         
@@ -69,11 +129,11 @@ public class SubscriptionsStore {
         public void visit(TreeNode node, int deep) {
             String subScriptionsStr = "";
             String indentTabs = indentTabs(deep);
-            for (ClientTopicCouple couple : node.m_subscriptions) {
-                subScriptionsStr += indentTabs + couple.toString() + "\n";
+            for (Subscription sub : node.subscriptions()) {
+                subScriptionsStr += indentTabs + sub.toString() + "\n";
             }
             s += node.getToken() == null ? "" : node.getToken().toString();
-            s +=  "\n" + (node.m_subscriptions.isEmpty() ? indentTabs : "") + subScriptionsStr /*+ "\n"*/;
+            s +=  "\n" + (node.m_subscriptions == null ? indentTabs : "") + subScriptionsStr /*+ "\n"*/;
         }
 
         private String indentTabs(int deep) {
@@ -94,6 +154,58 @@ public class SubscriptionsStore {
     private AtomicReference<TreeNode> subscriptions = new AtomicReference<>(new TreeNode());
     private static final Logger LOG = LoggerFactory.getLogger(SubscriptionsStore.class);
     private volatile ISessionsStore m_sessionsStore;
+    //bumped after every swap of the subscriptions tree root, used to invalidate the matches cache
+    private final AtomicLong m_version = new AtomicLong();
+    //null if the cache of matches is disabled
+    private final MatchesCache m_matchesCache;
+    //reverse index clientID -> topic filters it has in the tree, to remove a client touching only its own paths
+    private final ConcurrentMap<String, Set<String>> m_clientFilters = new ConcurrentHashMap<>();
+    //clients waiting to be removed, drained by who holds the lock so that concurrent removals share a single swap
+    private final Queue<String> m_pendingClientRemovals = new ConcurrentLinkedQueue<>();
+    //the removal of the clients holds the write lock, the updates of single filters of the index the read lock
+    private final ReadWriteLock m_clientRemovalsLock = new ReentrantReadWriteLock();
+    //null if the copy on write tree rooted in subscriptions is used
+    private final ConcurrentTree m_concurrentTree;
+    //subscriptions to the filters without wildcards, kept out of the tree
+    private final LiteralFiltersIndex m_literalFilters = new LiteralFiltersIndex();
+    //prefixes of the filters in the clients index, to skip the topics without subscribers
+    private final TopicPresenceFilter m_presence = new TopicPresenceFilter();
+    //shape of the tree, shared with the concurrent tree if used
+    private final TreeStats m_treeStats;
+    //subscriptions in the clients index, the ones to the literal filters included
+    private final AtomicInteger m_subscriptionsCount = new AtomicInteger();
+    private final AtomicInteger m_wildcardSubscriptions = new AtomicInteger();
+    //nanoseconds spent by the matches, cache lookups included, sampled to keep the clock and the shared
+    //recorder off the path of most of the publishes
+    static final int MATCHES_LATENCY_SAMPLING = 64;
+    private final Recorder m_matchesLatency = new Recorder(3);
+    private final ThreadLocal<int[]> m_matchesCount = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    public SubscriptionsStore() {
+        this(0);
+    }
+
+    /**
+     * @param matchesCacheSize the max number of topics whose matching subscriptions are cached, 0 to disable the cache.
+     * */
+    public SubscriptionsStore(int matchesCacheSize) {
+        this(matchesCacheSize, TreeType.COPY_ON_WRITE);
+    }
+
+    /**
+     * @param matchesCacheSize the max number of topics whose matching subscriptions are cached, 0 to disable the cache.
+     * @param treeType the implementation of the subscriptions tree.
+     * */
+    public SubscriptionsStore(int matchesCacheSize, TreeType treeType) {
+        m_matchesCache = matchesCacheSize > 0 ? new MatchesCache(matchesCacheSize) : null;
+        m_concurrentTree = treeType == TreeType.CONCURRENT ? new ConcurrentTree() : null;
+        m_treeStats = m_concurrentTree != null ? m_concurrentTree.stats() : new TreeStats();
+    }
 
     /**
      * Initialize the subscription tree with the list of subscriptions.
@@ -102,38 +214,460 @@ public class SubscriptionsStore {
     public void init(ISessionsStore sessionsStore) {
         LOG.debug("init invoked");
         m_sessionsStore = sessionsStore;
-        List<ClientTopicCouple> subscriptions = sessionsStore.listAllSubscriptions();
+        List<Subscription> allSubscriptions = sessionsStore.getSubscriptions();
         //reload any subscriptions persisted
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Reloading all stored subscriptions...subscription tree before {}", dumpTree());
+            LOG.debug("Reloading {} stored subscriptions...subscription tree before {}", allSubscriptions.size(), dumpTree());
         }
+        load(allSubscriptions);
+    }
 
-        for (ClientTopicCouple clientTopic : subscriptions) {
-            LOG.debug("Re-subscribing {} to topic {}", clientTopic.clientID, clientTopic.topicFilter);
-            add(clientTopic);
+    /**
+     * Initialize the subscription tree from a snapshot, replacing the subscriptions of the clients changed after
+     * it with the ones in the sessions store. Falls back to {@link #init(ISessionsStore)} if the snapshot is
+     * missing or newer than the sessions store, like when the store wasn't saved before a crash.
+     */
+    public void init(ISessionsStore sessionsStore, SubscriptionsSnapshot snapshot) {
+        if (snapshot == null || snapshot.getSequence() > sessionsStore.subscriptionsSequence()) {
+            if (snapshot != null) {
+                LOG.warn("The subscriptions snapshot is ahead of the sessions store, ignoring it");
+            }
+            init(sessionsStore);
+            return;
+        }
+        m_sessionsStore = sessionsStore;
+        Set<String> changedClients = new HashSet<>(sessionsStore.clientsChangedSince(snapshot.getSequence()));
+        List<Subscription> allSubscriptions = new ArrayList<>(snapshot.getSubscriptions().size());
+        for (Subscription sub : snapshot.getSubscriptions()) {
+            if (!changedClients.contains(sub.clientId)) {
+                allSubscriptions.add(sub);
+            }
+        }
+        for (String clientID : changedClients) {
+            allSubscriptions.addAll(sessionsStore.getSubscriptions(clientID));
+        }
+        LOG.info("Loaded {} subscriptions from the snapshot, replayed the changes of {} clients",
+                allSubscriptions.size(), changedClients.size());
+        load(allSubscriptions);
+    }
+
+    private void load(List<Subscription> allSubscriptions) {
+        m_literalFilters.clear();
+        List<Subscription> treeSubscriptions = new ArrayList<>();
+        for (Subscription sub : allSubscriptions) {
+            String literalKey = literalKey(sub.topicFilter);
+            if (literalKey != null) {
+                m_literalFilters.add(literalKey, sub);
+            } else {
+                treeSubscriptions.add(sub);
+            }
+        }
+        if (m_concurrentTree != null) {
+            m_concurrentTree.clear();
+            for (Subscription sub : treeSubscriptions) {
+                List<Token> tokens = filterTokens(sub.topicFilter);
+                if (tokens != null) {
+                    m_concurrentTree.add(tokens, sub);
+                }
+            }
+        } else {
+            //build the whole tree in one pass, instead of copying a path for each subscription
+            m_treeStats.clear();
+            subscriptions.set(buildTree(treeSubscriptions, m_treeStats));
+        }
+        m_version.incrementAndGet();
+        m_clientFilters.clear();
+        m_presence.clear();
+        m_subscriptionsCount.set(0);
+        m_wildcardSubscriptions.set(0);
+        for (Subscription sub : allSubscriptions) {
+            indexAdd(sub.clientId, sub.topicFilter);
         }
         if (LOG.isTraceEnabled()) {
             LOG.trace("Finished loading. Subscription tree after {}", dumpTree());
         }
     }
 
+    /**
+     * Add the subscription looking up its QoS in the sessions store, maintained for compatibility reasons.
+     */
     public void add(ClientTopicCouple newSubscription) {
-        TreeNode oldRoot;
-        NodeCouple couple;
-        do {
-            oldRoot = subscriptions.get();
-            couple = recreatePath(newSubscription.topicFilter, oldRoot);
-            couple.createdNode.addSubscription(newSubscription); //createdNode could be null?
+        Subscription sub = m_sessionsStore.getSubscription(newSubscription);
+        if (sub == null) {
+            LOG.warn("Can't find the subscription of {} in the sessions store, skipping it", newSubscription);
+            return;
+        }
+        add(sub);
+    }
+
+    public void add(Subscription newSubscription) {
+        String literalKey = literalKey(newSubscription.topicFilter);
+        if (literalKey != null) {
+            m_literalFilters.add(literalKey, newSubscription);
+            m_version.incrementAndGet();
+            indexAdd(newSubscription.clientId, newSubscription.topicFilter);
+            markChanged(newSubscription.clientId);
+            return;
+        }
+        if (m_concurrentTree != null) {
+            List<Token> tokens = filterTokens(newSubscription.topicFilter);
+            if (tokens == null) {
+                return;
+            }
+            m_concurrentTree.add(tokens, newSubscription);
+            m_version.incrementAndGet();
+            indexAdd(newSubscription.clientId, newSubscription.topicFilter);
+            markChanged(newSubscription.clientId);
+            return;
+        }
+        if (filterTokens(newSubscription.topicFilter) == null) {
+            return;
+        }
+        //a batch of one, so that the nodes it creates are counted
+        copyOnWriteTreeUpdate(Collections.singletonList(newSubscription), Collections.<ClientTopicCouple>emptyList());
+        m_version.incrementAndGet();
+        indexAdd(newSubscription.clientId, newSubscription.topicFilter);
+        markChanged(newSubscription.clientId);
+    }
+
+
+    /**
+     * Add all the subscriptions with a single swap of the tree, see {@link #batchUpdate(Collection, Collection)}.
+     */
+    public void addAll(Collection<Subscription> newSubscriptions) {
+        batchUpdate(newSubscriptions, Collections.<ClientTopicCouple>emptyList());
+    }
+
+    /**
+     * Apply many additions and removals in a single copy on write pass: every touched node is copied
+     * at most once and the root is swapped only once. Removals are applied before additions, and the nodes
+     * left empty by them are pruned. The subscriptions to literal filters are applied to their index.
+     */
+    public void batchUpdate(Collection<Subscription> toAdd, Collection<ClientTopicCouple> toRemove) {
+        batchUpdate(toAdd, toRemove, true);
+    }
+
+    /**
+     * @param removeFromIndex false if the removed subscriptions are already out of the clients index.
+     * */
+    private void batchUpdate(Collection<Subscription> toAdd, Collection<ClientTopicCouple> toRemove,
+                             boolean removeFromIndex) {
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return;
+        }
+        List<Subscription> treeAdds = new ArrayList<>(toAdd.size());
+        List<ClientTopicCouple> treeRemoves = new ArrayList<>(toRemove.size());
+        boolean changed = false;
+        for (ClientTopicCouple couple : toRemove) {
+            String literalKey = literalKey(couple.topicFilter);
+            if (literalKey == null) {
+                treeRemoves.add(couple);
+            } else if (m_literalFilters.remove(literalKey, couple)) {
+                changed = true;
+            }
+        }
+        for (Subscription sub : toAdd) {
+            String literalKey = literalKey(sub.topicFilter);
+            if (literalKey == null) {
+                treeAdds.add(sub);
+            } else {
+                m_literalFilters.add(literalKey, sub);
+                changed = true;
+            }
+        }
+        if (m_concurrentTree != null) {
+            //the concurrent tree doesn't swap the root, the changes are applied one by one
+            changed |= concurrentTreeUpdate(treeAdds, treeRemoves);
+        } else {
+            changed |= copyOnWriteTreeUpdate(treeAdds, treeRemoves);
+        }
+        if (changed) {
+            m_version.incrementAndGet();
+        }
+        //the index is updated only once the tree is swapped, so it never misses a subscription present in the tree
+        if (removeFromIndex) {
+            for (ClientTopicCouple couple : toRemove) {
+                indexRemove(couple);
+            }
+        }
+        for (Subscription sub : toAdd) {
+            indexAdd(sub.clientId, sub.topicFilter);
+        }
+        Set<String> changedClients = new HashSet<>();
+        for (ClientTopicCouple couple : toRemove) {
+            changedClients.add(couple.clientID);
+        }
+        for (Subscription sub : toAdd) {
+            changedClients.add(sub.clientId);
+        }
+        for (String clientID : changedClients) {
+            markChanged(clientID);
+        }
+    }
+
+    /**
+     * @return true if the tree changed.
+     * */
+    private boolean copyOnWriteTreeUpdate(Collection<Subscription> toAdd, Collection<ClientTopicCouple> toRemove) {
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return false;
+        }
+        while (true) {
+            TreeNode oldRoot = subscriptions.get();
+            TreeNode newRoot = oldRoot.copy();
+            boolean changed = !toAdd.isEmpty();
+            //nodes created and pruned in this pass, counted only if the pass wins the swap
+            int[] nodesDelta = TreeStats.newNodesDelta();
+            //nodes already copied in this pass, they could be modified in place
+            Set<TreeNode> copied = Collections.newSetFromMap(new IdentityHashMap<TreeNode, Boolean>());
+            copied.add(newRoot);
+            for (ClientTopicCouple couple : toRemove) {
+                List<Token> tokens = filterTokens(couple.topicFilter);
+                //look up the node before copying its path, removals of missing subscriptions don't touch the tree
+                TreeNode existing = tokens == null ? null : findNode(newRoot, tokens);
+                if (existing == null || !existing.containsSubscription(couple)) {
+                    continue;
+                }
+                ownedPath(newRoot, tokens, copied, false, null, null).remove(couple);
+                pruneOwnedPath(newRoot, tokens, nodesDelta);
+                changed = true;
+            }
+            if (!changed) {
+                return false;
+            }
+            for (Subscription sub : toAdd) {
+                TreeNode node = ownedPath(newRoot, sub.topicFilter, copied, true, nodesDelta, m_treeStats);
+                if (node != null) {
+                    node.addSubscription(sub);
+                }
+            }
             //spin lock repeating till we can, swap root, if can't swap just re-do the operation
-        } while(!subscriptions.compareAndSet(oldRoot, couple.root));
-        LOG.debug("root ref {}, original root was {}", couple.root, oldRoot);
+            if (subscriptions.compareAndSet(oldRoot, newRoot)) {
+                m_treeStats.apply(nodesDelta);
+                return true;
+            }
+            m_treeStats.casRetry();
+        }
+    }
+
+    /**
+     * @return true if the tree could have changed.
+     * */
+    private boolean concurrentTreeUpdate(Collection<Subscription> toAdd, Collection<ClientTopicCouple> toRemove) {
+        for (ClientTopicCouple couple : toRemove) {
+            List<Token> tokens = filterTokens(couple.topicFilter);
+            if (tokens != null) {
+                m_concurrentTree.remove(tokens, couple);
+            }
+        }
+        for (Subscription sub : toAdd) {
+            List<Token> tokens = filterTokens(sub.topicFilter);
+            if (tokens != null) {
+                m_concurrentTree.add(tokens, sub);
+            }
+        }
+        return !toAdd.isEmpty() || !toRemove.isEmpty();
+    }
+
+    /**
+     * Called once the subscription is in the tree. A removal of the client can't unlink the set of its filters
+     * meanwhile: it would miss the filter added to the unlinked set, leaving the subscription in the tree.
+     * */
+    private void indexAdd(String clientID, String topicFilter) {
+        m_clientRemovalsLock.readLock().lock();
+        try {
+            Set<String> filters = m_clientFilters.get(clientID);
+            if (filters == null) {
+                Set<String> newFilters = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                filters = m_clientFilters.putIfAbsent(clientID, newFilters);
+                if (filters == null) {
+                    filters = newFilters;
+                }
+            }
+            if (filters.add(topicFilter)) {
+                indexChanged(topicFilter, true);
+            }
+        } finally {
+            m_clientRemovalsLock.readLock().unlock();
+        }
     }
 
+    private void indexRemove(ClientTopicCouple couple) {
+        m_clientRemovalsLock.readLock().lock();
+        try {
+            Set<String> filters = m_clientFilters.get(couple.clientID);
+            if (filters != null && filters.remove(couple.topicFilter)) {
+                indexChanged(couple.topicFilter, false);
+            }
+        } finally {
+            m_clientRemovalsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record in the sessions store that the subscriptions of the client changed, once the change is applied, so
+     * that a snapshot taken before the record is replayed for the client.
+     * */
+    private void markChanged(String clientID) {
+        ISessionsStore sessionsStore = m_sessionsStore;
+        if (sessionsStore != null) {
+            sessionsStore.markSubscriptionsChanged(clientID);
+        }
+    }
+
+    /**
+     * The presence filter and the subscriptions counters count the subscriptions in the clients index, so
+     * they're updated when they enter or leave the index.
+     * */
+    private void indexChanged(String topicFilter, boolean add) {
+        List<Token> tokens = filterTokens(topicFilter);
+        if (tokens == null) {
+            return;
+        }
+        int delta = add ? 1 : -1;
+        m_subscriptionsCount.addAndGet(delta);
+        if (tokens.contains(Token.SINGLE) || tokens.contains(Token.MULTI)) {
+            m_wildcardSubscriptions.addAndGet(delta);
+        }
+        if (add) {
+            m_presence.add(matchingFilter(topicFilter), tokens);
+        } else {
+            m_presence.remove(matchingFilter(topicFilter), tokens);
+        }
+    }
+
+    /**
+     * Build a new tree containing all the subscriptions, every node is created in this pass so it's
+     * filled in place without any copy.
+     */
+    static TreeNode buildTree(Collection<Subscription> allSubscriptions) {
+        return buildTree(allSubscriptions, new TreeStats());
+    }
+
+    /**
+     * @param stats where the nodes of the new tree are counted.
+     * */
+    static TreeNode buildTree(Collection<Subscription> allSubscriptions, TreeStats stats) {
+        TreeNode root = new TreeNode();
+        int[] nodesDelta = TreeStats.newNodesDelta();
+        for (Subscription sub : allSubscriptions) {
+            TreeNode node = ownedPath(root, sub.topicFilter, null, true, nodesDelta, stats);
+            if (node != null) {
+                node.addSubscription(sub);
+            }
+        }
+        stats.apply(nodesDelta);
+        return root;
+    }
+
+    /**
+     * Walk down the path of the topic filter, copying the nodes not yet copied in the current pass.
+     *
+     * @param copied the nodes owned by the current pass, null if all the nodes are owned.
+     * @param create if true create the missing nodes.
+     * @param nodesDelta where the created nodes are counted, null if create is false.
+     * @param stats where the fan out of the nodes getting a new child is recorded, null if create is false.
+     * @return the node of the topic filter, or null if the filter is malformed or the node is missing.
+     */
+    private static TreeNode ownedPath(TreeNode root, String topicFilter, Set<TreeNode> copied, boolean create,
+                                      int[] nodesDelta, TreeStats stats) {
+        List<Token> tokens = filterTokens(topicFilter);
+        if (tokens == null) {
+            return null;
+        }
+        return ownedPath(root, tokens, copied, create, nodesDelta, stats);
+    }
+
+    private static TreeNode ownedPath(TreeNode root, List<Token> tokens, Set<TreeNode> copied, boolean create,
+                                      int[] nodesDelta, TreeStats stats) {
+        TreeNode current = root;
+        int depth = 0;
+        for (Token token : tokens) {
+            depth++;
+            TreeNode child = current.childWithToken(token);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = new TreeNode();
+                child.setToken(token);
+                current.addChild(child);
+                TreeStats.count(nodesDelta, depth, 1);
+                stats.fanOut(current.childrenCount());
+                if (copied != null) {
+                    copied.add(child);
+                }
+            } else if (copied != null && !copied.contains(child)) {
+                TreeNode copy = child.copy();
+                current.updateChild(child, copy);
+                copied.add(copy);
+                child = copy;
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    /**
+     * @return the node on the path of the tokens, or null if missing. Read only, nothing is copied.
+     * */
+    private static TreeNode findNode(TreeNode root, List<Token> tokens) {
+        TreeNode current = root;
+        for (Token token : tokens) {
+            current = current.childWithToken(token);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Unlink the empty nodes on the path of the tokens, from the deepest up. The path has to be already
+     * owned by the current copy on write pass.
+     * */
+    private static void pruneOwnedPath(TreeNode root, List<Token> tokens, int[] nodesDelta) {
+        TreeNode[] path = new TreeNode[tokens.size() + 1];
+        path[0] = root;
+        int depth = 0;
+        for (Token token : tokens) {
+            TreeNode child = path[depth].childWithToken(token);
+            if (child == null) {
+                break;
+            }
+            path[++depth] = child;
+        }
+        for (int i = depth; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(path[i].getToken());
+            TreeStats.count(nodesDelta, i, -1);
+        }
+    }
+
+    /**
+     * @return the key of the subscriptions to the topic filter in the literal filters index, null if they
+     * are kept in the tree.
+     * */
+    private static String literalKey(String topicFilter) {
+        String matchingFilter = matchingFilter(topicFilter);
+        return LiteralFiltersIndex.isLiteral(matchingFilter) ? matchingFilter : null;
+    }
+
+    /**
+     * @return the tokens of the path where the subscriptions to the topic filter are stored, null if malformed.
+     * */
+    private static List<Token> filterTokens(String topicFilter) {
+        try {
+            return parseTopic(matchingFilter(topicFilter));
+        } catch (ParseException ex) {
+            LOG.error(null, ex);
+            return null;
+        }
+    }
 
     protected NodeCouple recreatePath(String topic, final TreeNode oldRoot) {
         List<Token> tokens = new ArrayList<>();
         try {
-            tokens = parseTopic(topic);
+            tokens = parseTopic(matchingFilter(topic));
         } catch (ParseException ex) {
             //TODO handle the parse exception
             LOG.error(null, ex);
@@ -164,29 +698,68 @@ public class SubscriptionsStore {
     }
 
     public void removeSubscription(String topic, String clientID) {
-        TreeNode oldRoot;
-        NodeCouple couple;
-        do {
-            oldRoot = subscriptions.get();
-            couple = recreatePath(topic, oldRoot);
-
-            couple.createdNode.remove(new ClientTopicCouple(clientID, topic));
-            //spin lock repeating till we can, swap root, if can't swap just re-do the operation
-        } while(!subscriptions.compareAndSet(oldRoot, couple.root));
+        ClientTopicCouple couple = new ClientTopicCouple(clientID, topic);
+        String literalKey = literalKey(topic);
+        if (literalKey != null) {
+            if (m_literalFilters.remove(literalKey, couple)) {
+                m_version.incrementAndGet();
+            }
+            indexRemove(couple);
+            markChanged(clientID);
+            return;
+        }
+        if (m_concurrentTree != null) {
+            List<Token> tokens = filterTokens(topic);
+            if (tokens != null) {
+                m_concurrentTree.remove(tokens, couple);
+            }
+            m_version.incrementAndGet();
+            indexRemove(couple);
+            markChanged(clientID);
+            return;
+        }
+        //doesn't create the path of a filter never subscribed and prunes the nodes left empty
+        batchUpdate(Collections.<Subscription>emptyList(), Collections.singletonList(couple));
     }
     
     /**
-     * Visit the topics tree to remove matching subscriptions with clientID.
-     * It's a mutating structure operation so create a new subscription tree (partial or total).
+     * Remove all the subscriptions of clientID, copying only the paths of its own subscriptions.
+     * Removals requested concurrently by many threads are applied with a single swap of the tree.
      */
     public void removeForClient(String clientID) {
-        TreeNode oldRoot;
-        TreeNode newRoot;
-        do {
-            oldRoot = subscriptions.get();
-            newRoot = oldRoot.removeClientSubscriptions(clientID);
-            //spin lock repeating till we can, swap root, if can't swap just re-do the operation
-        } while(!subscriptions.compareAndSet(oldRoot, newRoot));
+        removeForClients(Collections.singletonList(clientID));
+    }
+
+    /**
+     * Remove all the subscriptions of the clients with a single swap of the tree.
+     */
+    public void removeForClients(Collection<String> clientIDs) {
+        m_pendingClientRemovals.addAll(clientIDs);
+        m_clientRemovalsLock.writeLock().lock();
+        try {
+            //a previous lock holder could have already removed our clients, in that case it's a no op
+            drainPendingClientRemovals();
+        } finally {
+            m_clientRemovalsLock.writeLock().unlock();
+        }
+    }
+
+    private void drainPendingClientRemovals() {
+        List<ClientTopicCouple> toRemove = new ArrayList<>();
+        String clientID;
+        while ((clientID = m_pendingClientRemovals.poll()) != null) {
+            Set<String> filters = m_clientFilters.remove(clientID);
+            if (filters == null) {
+                continue;
+            }
+            for (String topicFilter : filters) {
+                toRemove.add(new ClientTopicCouple(clientID, topicFilter));
+            }
+        }
+        batchUpdate(Collections.<Subscription>emptyList(), toRemove, false);
+        for (ClientTopicCouple couple : toRemove) {
+            indexChanged(couple.topicFilter, false);
+        }
     }
 
 
@@ -196,56 +769,263 @@ public class SubscriptionsStore {
      * listeners subscriptions, and not topic publishing.
      */
     public List<Subscription> matches(String topic) {
-        List<Token> tokens;
-        try {
-            tokens = parseTopic(topic);
-        } catch (ParseException ex) {
-            //TODO handle the parse exception
-            LOG.error(null, ex);
+        return matches(Topic.asTopic(topic));
+    }
+
+    /**
+     * Same as {@link #matches(String)} but with the topic already parsed.
+     * The returned list must not be modified, because it could be shared through the matches cache.
+     */
+    public List<Subscription> matches(Topic topic) {
+        if (!topic.isValid()) {
+            LOG.error("Can't match malformed topic <{}>", topic);
             return Collections.emptyList();
         }
+        int[] count = m_matchesCount.get();
+        if ((count[0]++ & (MATCHES_LATENCY_SAMPLING - 1)) != 0) {
+            return cachedMatches(topic);
+        }
+        long start = System.nanoTime();
+        List<Subscription> matching = cachedMatches(topic);
+        m_matchesLatency.recordValue(System.nanoTime() - start);
+        return matching;
+    }
+
+    private List<Subscription> cachedMatches(Topic topic) {
+        if (m_matchesCache == null) {
+            return doMatches(topic);
+        }
+
+        //read the version before the root, so that a concurrent swap makes the entry stale
+        final long version = m_version.get();
+        List<Subscription> cached = m_matchesCache.get(topic, version);
+        if (cached != null) {
+            return cached;
+        }
+        List<Subscription> matching = Collections.unmodifiableList(doMatches(topic));
+        m_matchesCache.put(topic, version, matching);
+        return matching;
+    }
 
-        Queue<Token> tokenQueue = new LinkedBlockingDeque<>(tokens);
-        List<ClientTopicCouple> matchingSubs = new ArrayList<>();
-        subscriptions.get().matches(tokenQueue, matchingSubs);
+    private List<Subscription> doMatches(Topic topic) {
+        List<Subscription> matchingSubs = new ArrayList<>();
+        //a literal filter matches only the topic equal to it, found with a single lookup
+        m_literalFilters.matches(topic.toString(), matchingSubs);
+        if (m_concurrentTree != null) {
+            m_concurrentTree.matches(topic.getTokens(), matchingSubs);
+        } else {
+            subscriptions.get().matches(topic.getTokens(), 0, matchingSubs);
+        }
 
         //remove the overlapping subscriptions, selecting ones with greatest qos
         Map<String, Subscription> subsForClient = new HashMap<>();
-        for (ClientTopicCouple matchingCouple : matchingSubs) {
-            Subscription existingSub = subsForClient.get(matchingCouple.clientID);
-            Subscription sub = m_sessionsStore.getSubscription(matchingCouple);
-            if (sub == null) {
-                //if the m_sessionStore hasn't the sub because the client disconnected
+        List<Subscription> sharedSubs = null;
+        for (Subscription sub : matchingSubs) {
+            if (isShared(sub.topicFilter)) {
+                //the members of shared subscriptions are not merged, the publisher picks one member for each group
+                if (sharedSubs == null) {
+                    sharedSubs = new ArrayList<>();
+                }
+                sharedSubs.add(sub);
                 continue;
             }
+            Subscription existingSub = subsForClient.get(sub.clientId);
             //update the selected subscriptions if not present or if has a greater qos
             if (existingSub == null || existingSub.getRequestedQos().byteValue() < sub.getRequestedQos().byteValue()) {
-                subsForClient.put(matchingCouple.clientID, sub);
+                subsForClient.put(sub.clientId, sub);
             }
         }
-        return new ArrayList<>(subsForClient.values());
+        List<Subscription> result = new ArrayList<>(subsForClient.values());
+        if (sharedSubs != null) {
+            result.addAll(sharedSubs);
+        }
+        return result;
+    }
+
+    /**
+     * Cheap check to skip the topics without subscribers: it doesn't allocate and doesn't walk the tree.
+     *
+     * @return false if no subscription can match the topic, true if some subscription could.
+     * */
+    public boolean mayMatch(Topic topic) {
+        return m_presence.mayMatch(topic.toString());
+    }
+
+    /**
+     * Take a snapshot of all the subscriptions, recording the last change of the sessions store it surely includes:
+     * the changes are recorded only once applied, so the ones recorded before the snapshot starts are in it.
+     * */
+    public SubscriptionsSnapshot snapshot() {
+        long sequence = m_sessionsStore.subscriptionsSequence();
+        List<Subscription> all = m_literalFilters.subscriptions();
+        if (m_concurrentTree != null) {
+            all.addAll(m_concurrentTree.subscriptions());
+        } else {
+            collect(subscriptions.get(), all);
+        }
+        return new SubscriptionsSnapshot(sequence, all);
     }
 
     public boolean contains(Subscription sub) {
-        return !matches(sub.topicFilter).isEmpty();
+        return !matches(new Topic(sub.topicFilter)).isEmpty();
     }
 
+    /**
+     * @return the number of subscriptions, read from a counter without walking the tree.
+     * */
     public int size() {
-        return subscriptions.get().size();
+        return m_subscriptionsCount.get();
+    }
+
+    /**
+     * Prune all the empty nodes of the tree, like the ones left by removals racing with additions.
+     * Intended to be run periodically in background.
+     */
+    public void compact() {
+        if (m_concurrentTree != null) {
+            m_concurrentTree.compact();
+        } else {
+            TreeNode oldRoot;
+            TreeNode newRoot;
+            int[] nodesDelta;
+            while (true) {
+                oldRoot = subscriptions.get();
+                nodesDelta = TreeStats.newNodesDelta();
+                newRoot = compacted(oldRoot, 0, nodesDelta);
+                if (newRoot == oldRoot || (newRoot == null && oldRoot.isEmpty())) {
+                    m_treeStats.resetFanOut(widestFanOut(oldRoot));
+                    return;
+                }
+                if (newRoot == null) {
+                    newRoot = new TreeNode();
+                }
+                if (subscriptions.compareAndSet(oldRoot, newRoot)) {
+                    break;
+                }
+                m_treeStats.casRetry();
+            }
+            m_treeStats.apply(nodesDelta);
+            m_treeStats.resetFanOut(widestFanOut(newRoot));
+        }
+        m_version.incrementAndGet();
+    }
+
+    private static int widestFanOut(TreeNode node) {
+        int widest = node.childrenCount();
+        for (TreeNode child : node.children()) {
+            widest = Math.max(widest, widestFanOut(child));
+        }
+        return widest;
+    }
+
+    /**
+     * @return the node itself if there is nothing to prune below it, a pruned copy otherwise and null if the
+     * node is empty once pruned.
+     * */
+    static TreeNode compacted(TreeNode node) {
+        return compacted(node, 0, TreeStats.newNodesDelta());
+    }
+
+    /**
+     * @param depth the depth of the node, the root is at 0.
+     * @param nodesDelta where the pruned nodes are counted.
+     * */
+    private static TreeNode compacted(TreeNode node, int depth, int[] nodesDelta) {
+        TreeNode copy = null;
+        for (TreeNode child : node.children()) {
+            TreeNode compactedChild = compacted(child, depth + 1, nodesDelta);
+            if (compactedChild == child) {
+                continue;
+            }
+            if (copy == null) {
+                copy = node.copy();
+            }
+            if (compactedChild == null) {
+                copy.removeChild(child.getToken());
+                TreeStats.count(nodesDelta, depth + 1, -1);
+            } else {
+                copy.addChild(compactedChild);
+            }
+        }
+        TreeNode result = copy != null ? copy : node;
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * @return the number of nodes of the tree, the root excluded. The literal filters have no nodes.
+     * */
+    public int nodesCount() {
+        return countNodes()[0];
+    }
+
+    /**
+     * @return the number of nodes without subscriptions and children, that the compaction would prune.
+     * */
+    public int emptyNodesCount() {
+        return countNodes()[1];
+    }
+
+    private int[] countNodes() {
+        if (m_concurrentTree != null) {
+            return m_concurrentTree.countNodes();
+        }
+        int[] result = new int[2];
+        subscriptions.get().countNodes(result);
+        return result;
+    }
+
+    /**
+     * Read the counters of the store, the latency of the matches covers the ones since the previous call.
+     * */
+    public synchronized SubscriptionsMetrics computeMetrics() {
+        return new SubscriptionsMetrics(m_subscriptionsCount.get(), m_wildcardSubscriptions.get(),
+                m_treeStats.nodes(), m_treeStats.maxDepth(), m_treeStats.widestFanOut(), m_treeStats.casRetries(),
+                matchesCacheHits(), matchesCacheMisses(), m_matchesLatency.getIntervalHistogram());
+    }
+
+    /**
+     * @return the number of matches served by the cache, 0 if the cache is disabled.
+     * */
+    public long matchesCacheHits() {
+        return m_matchesCache == null ? 0 : m_matchesCache.hits();
+    }
+
+    /**
+     * @return the number of matches that the cache couldn't serve, 0 if the cache is disabled.
+     * */
+    public long matchesCacheMisses() {
+        return m_matchesCache == null ? 0 : m_matchesCache.misses();
     }
     
     public String dumpTree() {
         DumpTreeVisitor visitor = new DumpTreeVisitor();
-        bfsVisit(subscriptions.get(), visitor, 0);
+        //the literal filters and the concurrent tree are dumped through a copy on write tree holding all the subscriptions
+        List<Subscription> all = m_literalFilters.subscriptions();
+        TreeNode root = subscriptions.get();
+        if (m_concurrentTree != null) {
+            all.addAll(m_concurrentTree.subscriptions());
+            root = buildTree(all);
+        } else if (!all.isEmpty()) {
+            collect(root, all);
+            root = buildTree(all);
+        }
+        bfsVisit(root, visitor, 0);
         return visitor.getResult();
     }
     
+    private static void collect(TreeNode node, List<Subscription> all) {
+        all.addAll(node.subscriptions());
+        for (TreeNode child : node.children()) {
+            collect(child, all);
+        }
+    }
+
     private void bfsVisit(TreeNode node, IVisitor visitor, int deep) {
         if (node == null) {
             return;
         }
         visitor.visit(node, deep);
-        for (TreeNode child : node.m_children) {
+        for (TreeNode child : node.children()) {
             bfsVisit(child, visitor, ++deep);
         }
     }
@@ -253,40 +1033,11 @@ public class SubscriptionsStore {
     /**
      * Verify if the 2 topics matching respecting the rules of MQTT Appendix A
      */
-    //TODO reimplement with iterators or with queues
     public static boolean matchTopics(String msgTopic, String subscriptionTopic) {
-        try {
-            List<Token> msgTokens = SubscriptionsStore.parseTopic(msgTopic);
-            List<Token> subscriptionTokens = SubscriptionsStore.parseTopic(subscriptionTopic);
-            int i = 0;
-            for (; i< subscriptionTokens.size(); i++) {
-                Token subToken = subscriptionTokens.get(i);
-                if (subToken != Token.MULTI && subToken != Token.SINGLE) {
-                    if (i >= msgTokens.size()) {
-                        return false;
-                    }
-                    Token msgToken = msgTokens.get(i);
-                    if (!msgToken.equals(subToken)) {
-                        return false;
-                    }
-                } else {
-                    if (subToken == Token.MULTI) {
-                        return true;
-                    }
-                    if (subToken == Token.SINGLE) {
-                        //skip a step forward
-                    }
-                }
-            }
-            //if last token was a SINGLE then treat it as an empty
-//            if (subToken == Token.SINGLE && (i - msgTokens.size() == 1)) {
-//               i--;
-//            }
-            return i == msgTokens.size();
-        } catch (ParseException ex) {
-            LOG.error(null, ex);
-            throw new RuntimeException(ex);
+        if (!TopicMatcher.isWellFormed(msgTopic) || !TopicMatcher.isWellFormed(subscriptionTopic)) {
+            throw new RuntimeException(String.format("Bad format of topics <%s>, <%s>", msgTopic, subscriptionTopic));
         }
+        return TopicMatcher.matches(msgTopic, subscriptionTopic);
     }
     
     protected static List<Token> parseTopic(String topic) throws ParseException {
@@ -325,7 +1076,7 @@ public class SubscriptionsStore {
             } else if (s.contains("+")) {
                 throw new ParseException("Bad format of topic, invalid subtopic name: " + s, i);
             } else {
-                res.add(new Token(s));
+                res.add(Token.intern(s));
             }
         }
 
@@ -23,12 +23,33 @@ public class Token {
     static final Token EMPTY = new Token("");
     static final Token MULTI = new Token("#");
     static final Token SINGLE = new Token("+");
+
+    private static volatile ClockCache<String, Token> INTERNED = new ClockCache<>(Topic.DEFAULT_CACHE_SIZE);
+
     final String name;
 
     protected Token(String s) {
         name = s;
     }
 
+    /**
+     * Return the shared instance of the token with the given name, creating and caching it
+     * if not already cached. The least used tokens are evicted from the bounded cache, so two
+     * equal tokens aren't granted to be the same instance.
+     * */
+    static Token intern(String name) {
+        ClockCache<String, Token> interned = INTERNED;
+        Token token = interned.get(name);
+        if (token != null) {
+            return token;
+        }
+        return interned.putIfAbsent(name, new Token(name));
+    }
+
+    static void setInternCacheSize(int size) {
+        INTERNED = new ClockCache<>(size);
+    }
+
     protected String name() {
         return name;
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A topic name or topic filter parsed once in its tokens, so that authorization, subscription
+ * matching and retained store could share the same parsing.
+ *
+ * Instances obtained through {@link #asTopic(String)} are cached in a bounded cache, so the
+ * topics that are published over and over are parsed only the first time. The topics that are
+ * used once, like the subscription filters, are better parsed with {@link #Topic(String)}.
+ *
+ * @author andrea
+ */
+public final class Topic {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Topic.class);
+
+    /**
+     * Default upper bound of the parsed topics cache and of the interned tokens.
+     * */
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+    private static volatile ClockCache<String, Topic> CACHE = new ClockCache<>(DEFAULT_CACHE_SIZE);
+
+    private final String m_topic;
+    //null if the topic is malformed
+    private final List<Token> m_tokens;
+
+    /**
+     * Parse the topic without caching it, intended for topics that are not going to be reused.
+     * */
+    public Topic(String topic) {
+        m_topic = topic;
+        List<Token> tokens;
+        try {
+            tokens = Collections.unmodifiableList(SubscriptionsStore.parseTopic(topic));
+        } catch (ParseException pex) {
+            LOG.info("Bad format of topic <{}>", topic);
+            tokens = null;
+        }
+        m_tokens = tokens;
+    }
+
+    /**
+     * Return the parsed topic, using the cached instance if any.
+     * */
+    public static Topic asTopic(String topic) {
+        ClockCache<String, Topic> cache = CACHE;
+        Topic parsed = cache.get(topic);
+        if (parsed != null) {
+            return parsed;
+        }
+        parsed = new Topic(topic);
+        if (!parsed.isValid()) {
+            return parsed;
+        }
+        return cache.putIfAbsent(topic, parsed);
+    }
+
+    /**
+     * Replace the parsed topics cache and the interned tokens with empty ones of the given size, intended
+     * to be called at the broker startup.
+     *
+     * @param size max number of cached topics and of interned tokens, 0 disables both.
+     * */
+    public static void setCacheSize(int size) {
+        CACHE = new ClockCache<>(size);
+        Token.setInternCacheSize(size);
+    }
+
+    /**
+     * @return true if the topic was well formed.
+     * */
+    public boolean isValid() {
+        return m_tokens != null;
+    }
+
+    List<Token> getTokens() {
+        return m_tokens;
+    }
+
+    /**
+     * Verify if this topic name matches the given topic filter respecting the rules of MQTT Appendix A.
+     * A malformed topic or filter never matches.
+     */
+    public boolean match(Topic subscriptionTopic) {
+        if (!isValid() || !subscriptionTopic.isValid()) {
+            return false;
+        }
+        List<Token> msgTokens = m_tokens;
+        List<Token> subscriptionTokens = subscriptionTopic.m_tokens;
+        int i = 0;
+        for (; i < subscriptionTokens.size(); i++) {
+            Token subToken = subscriptionTokens.get(i);
+            if (subToken == Token.MULTI) {
+                return true;
+            }
+            if (subToken != Token.SINGLE) {
+                if (i >= msgTokens.size()) {
+                    return false;
+                }
+                if (!msgTokens.get(i).equals(subToken)) {
+                    return false;
+                }
+            }
+        }
+        return i == msgTokens.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Topic other = (Topic) o;
+        return m_topic.equals(other.m_topic);
+    }
+
+    @Override
+    public int hashCode() {
+        return m_topic.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return m_topic;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+/**
+ * Matches a topic name against a topic filter comparing the characters in place, without splitting or
+ * parsing the strings, so no object is allocated. Follows the same rules of {@link Topic#match(Topic)},
+ * also in the way {@link SubscriptionsStore#parseTopic(String)} splits the levels.
+ *
+ * @author andrea
+ */
+public final class TopicMatcher {
+
+    private TopicMatcher() {
+    }
+
+    /**
+     * @return true if the topic name matches the topic filter, false if they don't or any of them is malformed.
+     * */
+    public static boolean matches(String topicName, String topicFilter) {
+        if (!isWellFormed(topicName) || !isWellFormed(topicFilter)) {
+            return false;
+        }
+        final int topicEnd = effectiveLength(topicName);
+        final int filterEnd = effectiveLength(topicFilter);
+        int topicStart = 0;
+        int filterStart = 0;
+        boolean topicConsumed = false;
+        //+ levels of the filter past the end of the topic
+        int exceedingLevels = 0;
+        while (true) {
+            int filterLevelEnd = levelEnd(topicFilter, filterStart, filterEnd);
+            int filterLevelLength = filterLevelEnd - filterStart;
+            boolean singleWildcard = filterLevelLength == 1 && topicFilter.charAt(filterStart) == '+';
+            if (filterLevelLength == 1 && topicFilter.charAt(filterStart) == '#') {
+                return true;
+            }
+
+            if (topicConsumed) {
+                if (!singleWildcard) {
+                    return false;
+                }
+                exceedingLevels++;
+            } else {
+                int topicLevelEnd = levelEnd(topicName, topicStart, topicEnd);
+                if (!singleWildcard && (topicLevelEnd - topicStart != filterLevelLength
+                        || !topicName.regionMatches(topicStart, topicFilter, filterStart, filterLevelLength))) {
+                    return false;
+                }
+                if (topicLevelEnd == topicEnd) {
+                    topicConsumed = true;
+                } else {
+                    topicStart = topicLevelEnd + 1;
+                }
+            }
+
+            if (filterLevelEnd == filterEnd) {
+                return topicConsumed && exceedingLevels == 0;
+            }
+            filterStart = filterLevelEnd + 1;
+        }
+    }
+
+    /**
+     * Check the wildcards are used as parseTopic requires: # and + only as a whole level and # only as the last one.
+     * */
+    static boolean isWellFormed(String topic) {
+        final int length = topic.length();
+        int levelStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && topic.charAt(i) != '/') {
+                continue;
+            }
+            //level [levelStart, i)
+            for (int j = levelStart; j < i; j++) {
+                char c = topic.charAt(j);
+                if (c == '#') {
+                    if (i - levelStart != 1 || i != length) {
+                        return false;
+                    }
+                } else if (c == '+' && i - levelStart != 1) {
+                    return false;
+                }
+            }
+            levelStart = i + 1;
+        }
+        return true;
+    }
+
+    /**
+     * String.split drops the trailing empty levels and parseTopic adds back only one of them, so a run of
+     * trailing separators counts as a single one.
+     * */
+    private static int effectiveLength(String topic) {
+        int end = topic.length();
+        if (end == 0 || topic.charAt(end - 1) != '/') {
+            return end;
+        }
+        while (end > 0 && topic.charAt(end - 1) == '/') {
+            end--;
+        }
+        //keep one separator, followed by the empty last level
+        return end + 1;
+    }
+
+    private static int levelEnd(String topic, int from, int end) {
+        int separator = topic.indexOf('/', from);
+        return separator < 0 || separator >= end ? end : separator;
+    }
+}
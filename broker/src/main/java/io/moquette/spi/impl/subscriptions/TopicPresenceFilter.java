@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counting Bloom filter of the literal prefixes of the subscribed filters, the levels before the first
+ * wildcard, or the whole filter when it has none. A topic can match a filter only if one of its prefixes is
+ * the prefix of the filter, so when none of them is present nobody is subscribed to the topic. False
+ * positives are possible, false negatives are not.
+ *
+ * The prefixes of a topic are hashed walking its chars once, without allocations.
+ *
+ * @author andrea
+ */
+final class TopicPresenceFilter {
+
+    private static final int COUNTERS = 1 << 16;
+    private static final int MASK = COUNTERS - 1;
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final AtomicIntegerArray m_counters = new AtomicIntegerArray(COUNTERS);
+    //filters starting with a wildcard, they could match any topic
+    private final AtomicInteger m_rootWildcards = new AtomicInteger();
+
+    /**
+     * @param tokens the tokens of the matching filter, as stored in the tree.
+     * */
+    void add(String matchingFilter, List<Token> tokens) {
+        update(matchingFilter, tokens, 1);
+    }
+
+    void remove(String matchingFilter, List<Token> tokens) {
+        update(matchingFilter, tokens, -1);
+    }
+
+    private void update(String matchingFilter, List<Token> tokens, int delta) {
+        int levels = 0;
+        while (levels < tokens.size() && tokens.get(levels) != Token.SINGLE && tokens.get(levels) != Token.MULTI) {
+            levels++;
+        }
+        if (levels == 0) {
+            m_rootWildcards.addAndGet(delta);
+            return;
+        }
+        //hash the chars of the first levels, the tokens could be less than the separators when the filter
+        //ends with many of them
+        int h1 = 0;
+        int h2 = FNV_OFFSET;
+        int separators = 0;
+        for (int i = 0; i < matchingFilter.length(); i++) {
+            char c = matchingFilter.charAt(i);
+            if (c == '/' && ++separators == levels) {
+                break;
+            }
+            h1 = 31 * h1 + c;
+            h2 = (h2 ^ c) * FNV_PRIME;
+        }
+        m_counters.addAndGet(index(h1), delta);
+        m_counters.addAndGet(index(h2), delta);
+    }
+
+    /**
+     * @return false if no subscribed filter can match the topic.
+     * */
+    boolean mayMatch(String topic) {
+        if (m_rootWildcards.get() > 0) {
+            return true;
+        }
+        int h1 = 0;
+        int h2 = FNV_OFFSET;
+        for (int i = 0; i < topic.length(); i++) {
+            char c = topic.charAt(i);
+            if (c == '/' && contains(h1, h2)) {
+                return true;
+            }
+            h1 = 31 * h1 + c;
+            h2 = (h2 ^ c) * FNV_PRIME;
+        }
+        return contains(h1, h2);
+    }
+
+    private boolean contains(int h1, int h2) {
+        return m_counters.get(index(h1)) > 0 && m_counters.get(index(h2)) > 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < COUNTERS; i++) {
+            m_counters.set(i, 0);
+        }
+        m_rootWildcards.set(0);
+    }
+
+    private static int index(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & MASK;
+    }
+}
@@ -18,14 +18,25 @@ package io.moquette.spi.impl.subscriptions;
 import io.moquette.spi.ISessionsStore.ClientTopicCouple;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
 
 class TreeNode {
 
+    //max number of literal children kept in the array, beyond they are moved in a map
+    static final int MAX_CHILDREN_ARRAY_SIZE = 8;
+
     Token m_token;
-    List<TreeNode> m_children = new ArrayList<>();
-    //TODO move to set of ClientIDthe set of clientIDs that has subscriptions to this topic
-    Set<ClientTopicCouple> m_subscriptions = new HashSet<>();
+    //children with a literal token: an array filled from the start while they are few, then a map by token.
+    //Only one of the two is not null
+    TreeNode[] m_childrenArray;
+    Map<Token, TreeNode> m_childrenMap;
+    //dedicated slots for the wildcard children, so that matching doesn't need to scan the literal ones
+    TreeNode m_singleWildcardChild;
+    TreeNode m_multiWildcardChild;
+    //subscriptions to the topic filter of this node, carrying their QoS, see SubscriptionsSet. A client could have
+    //more than one subscription on the same node, when it's also member of shared subscriptions on the same filter
+    Object m_subscriptions;
+    //false if m_subscriptions is shared with the node this was copied from, so it has to be copied before updating
+    private boolean m_subscriptionsOwned = true;
 
     TreeNode() {
     }
@@ -38,22 +49,82 @@ class TreeNode {
         this.m_token = topic;
     }
 
-    void addSubscription(ClientTopicCouple s) {
-        m_subscriptions.add(s);
+    /**
+     * Add the subscription, if the client is already subscribed keeps the greatest QoS,
+     * as the session does.
+     * */
+    void addSubscription(Subscription s) {
+        Subscription existing = SubscriptionsSet.get(m_subscriptions, s.clientId, s.topicFilter);
+        if (existing == null || existing.requestedQos.byteValue() < s.requestedQos.byteValue()) {
+            m_subscriptions = SubscriptionsSet.put(ownedSubscriptions(), s);
+        }
+    }
+
+    private Object ownedSubscriptions() {
+        if (!m_subscriptionsOwned) {
+            m_subscriptions = SubscriptionsSet.copy(m_subscriptions);
+            m_subscriptionsOwned = true;
+        }
+        return m_subscriptions;
     }
 
     void addChild(TreeNode child) {
-        m_children.add(child);
+        Token token = child.getToken();
+        if (token == Token.SINGLE) {
+            m_singleWildcardChild = child;
+        } else if (token == Token.MULTI) {
+            m_multiWildcardChild = child;
+        } else if (m_childrenMap != null) {
+            m_childrenMap.put(token, child);
+        } else {
+            addToChildrenArray(child);
+        }
+    }
+
+    private void addToChildrenArray(TreeNode child) {
+        if (m_childrenArray == null) {
+            m_childrenArray = new TreeNode[2];
+            m_childrenArray[0] = child;
+            return;
+        }
+        int i = 0;
+        for (; i < m_childrenArray.length && m_childrenArray[i] != null; i++) {
+            if (m_childrenArray[i].m_token.equals(child.m_token)) {
+                m_childrenArray[i] = child;
+                return;
+            }
+        }
+        if (i < m_childrenArray.length) {
+            m_childrenArray[i] = child;
+        } else if (m_childrenArray.length < MAX_CHILDREN_ARRAY_SIZE) {
+            m_childrenArray = Arrays.copyOf(m_childrenArray, Math.min(m_childrenArray.length * 2, MAX_CHILDREN_ARRAY_SIZE));
+            m_childrenArray[i] = child;
+        } else {
+            m_childrenMap = new HashMap<>();
+            for (TreeNode existing : m_childrenArray) {
+                m_childrenMap.put(existing.m_token, existing);
+            }
+            m_childrenMap.put(child.m_token, child);
+            m_childrenArray = null;
+        }
     }
 
     /**
      * Creates a shallow copy of the current node.
-     * Copy the token and the children.
+     * Copy the token and the children, the subscriptions are shared till the copy updates them.
      * */
     TreeNode copy() {
         final TreeNode copy = new TreeNode();
-        copy.m_children = new ArrayList<>(m_children);
-        copy.m_subscriptions = new HashSet<>(m_subscriptions);
+        if (m_childrenArray != null) {
+            copy.m_childrenArray = m_childrenArray.clone();
+        }
+        if (m_childrenMap != null) {
+            copy.m_childrenMap = new HashMap<>(m_childrenMap);
+        }
+        copy.m_singleWildcardChild = m_singleWildcardChild;
+        copy.m_multiWildcardChild = m_multiWildcardChild;
+        copy.m_subscriptions = m_subscriptions;
+        copy.m_subscriptionsOwned = false;
         copy.m_token = m_token;
         return copy;
     }
@@ -63,95 +134,200 @@ class TreeNode {
      * null;
      */
     TreeNode childWithToken(Token token) {
-        for (TreeNode child : m_children) {
-            if (child.getToken().equals(token)) {
-                return child;
-            }
+        if (token == Token.SINGLE) {
+            return m_singleWildcardChild;
+        }
+        if (token == Token.MULTI) {
+            return m_multiWildcardChild;
         }
+        return literalChild(token);
+    }
 
+    private TreeNode literalChild(Token token) {
+        if (m_childrenMap != null) {
+            return m_childrenMap.get(token);
+        }
+        if (m_childrenArray != null) {
+            for (TreeNode child : m_childrenArray) {
+                if (child == null) {
+                    return null;
+                }
+                //tokens are interned, so the identity check is the common case
+                if (child.m_token == token || child.m_token.equals(token)) {
+                    return child;
+                }
+            }
+        }
         return null;
     }
 
     void updateChild(TreeNode oldChild, TreeNode newChild) {
-        m_children.remove(oldChild);
-        m_children.add(newChild);
+        addChild(newChild);
     }
 
-    Collection<ClientTopicCouple> subscriptions() {
-        return m_subscriptions;
+    void removeChild(Token token) {
+        if (token == Token.SINGLE) {
+            m_singleWildcardChild = null;
+        } else if (token == Token.MULTI) {
+            m_multiWildcardChild = null;
+        } else if (m_childrenMap != null) {
+            m_childrenMap.remove(token);
+        } else if (m_childrenArray != null) {
+            int size = literalChildrenCount();
+            for (int i = 0; i < size; i++) {
+                if (m_childrenArray[i].m_token.equals(token)) {
+                    System.arraycopy(m_childrenArray, i + 1, m_childrenArray, i, size - i - 1);
+                    m_childrenArray[size - 1] = null;
+                    if (size == 1) {
+                        m_childrenArray = null;
+                    }
+                    return;
+                }
+            }
+        }
     }
 
-    public void remove(ClientTopicCouple clientTopicCouple) {
-        m_subscriptions.remove(clientTopicCouple);
+    /**
+     * @return true if the node has neither subscriptions nor children, so it could be pruned.
+     * */
+    boolean isEmpty() {
+        return m_subscriptions == null && childrenCount() == 0;
     }
 
-    //TODO smell a query method that return the result modifing the parameter (matchingSubs)
-    void matches(Queue<Token> tokens, List<ClientTopicCouple> matchingSubs) {
-        Token t = tokens.poll();
-
-        //check if t is null <=> tokens finished
-        if (t == null) {
-            matchingSubs.addAll(m_subscriptions);
-            //check if it has got a MULTI child and add its subscriptions
-            for (TreeNode n : m_children) {
-                if (n.getToken() == Token.MULTI || n.getToken() == Token.SINGLE) {
-                    matchingSubs.addAll(n.subscriptions());
+    /**
+     * Return all the children, literal and wildcard ones.
+     * */
+    Collection<TreeNode> children() {
+        List<TreeNode> all = new ArrayList<>(childrenCount());
+        if (m_childrenMap != null) {
+            all.addAll(m_childrenMap.values());
+        } else if (m_childrenArray != null) {
+            for (TreeNode child : m_childrenArray) {
+                if (child == null) {
+                    break;
                 }
+                all.add(child);
             }
+        }
+        if (m_singleWildcardChild != null) {
+            all.add(m_singleWildcardChild);
+        }
+        if (m_multiWildcardChild != null) {
+            all.add(m_multiWildcardChild);
+        }
+        return all;
+    }
 
+    private int literalChildrenCount() {
+        if (m_childrenMap != null) {
+            return m_childrenMap.size();
+        }
+        int count = 0;
+        if (m_childrenArray != null) {
+            while (count < m_childrenArray.length && m_childrenArray[count] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int childrenCount() {
+        int count = literalChildrenCount();
+        if (m_singleWildcardChild != null) {
+            count++;
+        }
+        if (m_multiWildcardChild != null) {
+            count++;
+        }
+        return count;
+    }
+
+    Collection<Subscription> subscriptions() {
+        List<Subscription> subscriptions = new ArrayList<>();
+        SubscriptionsSet.addTo(m_subscriptions, subscriptions);
+        return subscriptions;
+    }
+
+    boolean containsSubscription(ClientTopicCouple clientTopicCouple) {
+        return SubscriptionsSet.get(m_subscriptions, clientTopicCouple.clientID, clientTopicCouple.topicFilter) != null;
+    }
+
+    /**
+     * @return true if the subscription was present.
+     * */
+    public boolean remove(ClientTopicCouple clientTopicCouple) {
+        if (!containsSubscription(clientTopicCouple)) {
+            return false;
+        }
+        m_subscriptions = SubscriptionsSet.remove(ownedSubscriptions(), clientTopicCouple.clientID,
+                clientTopicCouple.topicFilter);
+        return true;
+    }
+
+    /**
+     * Collect the subscriptions matching the tokens from index onward, walking down
+     * the tree without copying the token list.
+     * */
+    //TODO smell a query method that return the result modifing the parameter (matchingSubs)
+    void matches(List<Token> tokens, int index, List<Subscription> matchingSubs) {
+        //check if tokens finished
+        if (index == tokens.size()) {
+            SubscriptionsSet.addTo(m_subscriptions, matchingSubs);
+            //check if it has got a MULTI or SINGLE child and add its subscriptions
+            if (m_multiWildcardChild != null) {
+                SubscriptionsSet.addTo(m_multiWildcardChild.m_subscriptions, matchingSubs);
+            }
+            if (m_singleWildcardChild != null) {
+                SubscriptionsSet.addTo(m_singleWildcardChild.m_subscriptions, matchingSubs);
+            }
             return;
         }
 
         //we are on MULTI, than add subscriptions and return
         if (m_token == Token.MULTI) {
-            matchingSubs.addAll(m_subscriptions);
+            SubscriptionsSet.addTo(m_subscriptions, matchingSubs);
             return;
         }
 
-        for (TreeNode n : m_children) {
-            if (n.getToken().match(t)) {
-                //Create a copy of token, else if navigate 2 sibling it
-                //consumes 2 elements on the queue instead of one
-                n.matches(new LinkedBlockingQueue<>(tokens), matchingSubs);
-                //TODO don't create a copy n.matches(tokens, matchingSubs);
-            }
+        Token t = tokens.get(index);
+        //wildcards in a published topic doesn't match anything
+        if (t == Token.MULTI || t == Token.SINGLE) {
+            return;
         }
-    }
 
-    /**
-     * Return the number of registered subscriptions
-     */
-    int size() {
-        int res = m_subscriptions.size();
-        for (TreeNode child : m_children) {
-            res += child.size();
+        TreeNode literalChild = literalChild(t);
+        if (literalChild != null) {
+            literalChild.matches(tokens, index + 1, matchingSubs);
+        }
+        if (m_singleWildcardChild != null) {
+            m_singleWildcardChild.matches(tokens, index + 1, matchingSubs);
+        }
+        if (m_multiWildcardChild != null) {
+            m_multiWildcardChild.matches(tokens, index + 1, matchingSubs);
         }
-        return res;
     }
 
     /**
-     * Create a copied subtree rooted on this node but purged of clientID's subscriptions.
+     * Count the nodes below this one, in result[0] all of them and in result[1] the empty ones.
      * */
-    TreeNode removeClientSubscriptions(String clientID) {
-        //collect what to delete and then delete to avoid ConcurrentModification
-        TreeNode newSubRoot = this.copy();
-        List<ClientTopicCouple> subsToRemove = new ArrayList<>();
-        for (ClientTopicCouple s : newSubRoot.m_subscriptions) {
-            if (s.clientID.equals(clientID)) {
-                subsToRemove.add(s);
+    void countNodes(int[] result) {
+        for (TreeNode child : children()) {
+            result[0]++;
+            if (child.isEmpty()) {
+                result[1]++;
             }
+            child.countNodes(result);
         }
+    }
 
-        for (ClientTopicCouple s : subsToRemove) {
-            newSubRoot.m_subscriptions.remove(s);
-        }
-
-        //go deep
-        List<TreeNode> newChildren = new ArrayList<>(newSubRoot.m_children.size());
-        for (TreeNode child : newSubRoot.m_children) {
-            newChildren.add(child.removeClientSubscriptions(clientID));
+    /**
+     * Return the number of registered subscriptions
+     */
+    int size() {
+        int res = SubscriptionsSet.size(m_subscriptions);
+        for (TreeNode child : children()) {
+            res += child.size();
         }
-        newSubRoot.m_children = newChildren;
-        return newSubRoot;
+        return res;
     }
 }
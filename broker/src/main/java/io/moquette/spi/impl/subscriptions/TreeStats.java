@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shape counters of a subscriptions tree, updated by the tree along with its changes so that reading them
+ * doesn't walk the tree.
+ *
+ * @author andrea
+ */
+final class TreeStats {
+
+    //nodes deeper than this are counted at this depth
+    static final int MAX_TRACKED_DEPTH = 32;
+
+    private final AtomicIntegerArray m_nodesByDepth = new AtomicIntegerArray(MAX_TRACKED_DEPTH + 1);
+    //greatest number of children of a node since the last compaction, the removals don't lower it
+    private final AtomicInteger m_widestFanOut = new AtomicInteger();
+    //compare and set of a mutation that failed and was retried
+    private final AtomicLong m_casRetries = new AtomicLong();
+
+    void nodesAdded(int depth, int count) {
+        m_nodesByDepth.addAndGet(Math.min(depth, MAX_TRACKED_DEPTH), count);
+    }
+
+    void nodesRemoved(int depth, int count) {
+        m_nodesByDepth.addAndGet(Math.min(depth, MAX_TRACKED_DEPTH), -count);
+    }
+
+    /**
+     * Apply the changes of a copy on write pass, once its root is swapped.
+     *
+     * @param nodesDelta the nodes added, or removed when negative, indexed by depth.
+     * */
+    void apply(int[] nodesDelta) {
+        for (int depth = 0; depth < nodesDelta.length; depth++) {
+            if (nodesDelta[depth] != 0) {
+                m_nodesByDepth.addAndGet(depth, nodesDelta[depth]);
+            }
+        }
+    }
+
+    static int[] newNodesDelta() {
+        return new int[MAX_TRACKED_DEPTH + 1];
+    }
+
+    static void count(int[] nodesDelta, int depth, int count) {
+        nodesDelta[Math.min(depth, MAX_TRACKED_DEPTH)] += count;
+    }
+
+    void fanOut(int children) {
+        int widest;
+        do {
+            widest = m_widestFanOut.get();
+            if (children <= widest) {
+                return;
+            }
+        } while (!m_widestFanOut.compareAndSet(widest, children));
+    }
+
+    /**
+     * Replace the widest fan out with the one measured walking the whole tree, like the compaction does.
+     * */
+    void resetFanOut(int widest) {
+        m_widestFanOut.set(widest);
+    }
+
+    void casRetry() {
+        m_casRetries.incrementAndGet();
+    }
+
+    int nodes() {
+        int nodes = 0;
+        for (int depth = 1; depth <= MAX_TRACKED_DEPTH; depth++) {
+            nodes += m_nodesByDepth.get(depth);
+        }
+        return nodes;
+    }
+
+    int maxDepth() {
+        for (int depth = MAX_TRACKED_DEPTH; depth > 0; depth--) {
+            if (m_nodesByDepth.get(depth) > 0) {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    int widestFanOut() {
+        return m_widestFanOut.get();
+    }
+
+    long casRetries() {
+        return m_casRetries.get();
+    }
+
+    void clear() {
+        for (int depth = 0; depth <= MAX_TRACKED_DEPTH; depth++) {
+            m_nodesByDepth.set(depth, 0);
+        }
+        m_widestFanOut.set(0);
+    }
+}
@@ -18,6 +18,7 @@ package io.moquette.spi.persistence;
 import io.moquette.spi.IMatchingCondition;
 import io.moquette.spi.IMessagesStore;
 import io.moquette.spi.MessageGUID;
+import io.moquette.spi.impl.subscriptions.RetainedTopicsIndex;
 import org.mapdb.DB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +41,8 @@ class MapDBMessagesStore implements IMessagesStore {
     private ConcurrentMap<String, MessageGUID> m_retainedStore;
     //maps guid to message, it's message store
     private ConcurrentMap<MessageGUID, IMessagesStore.StoredMessage> m_persistentMessageStore;
+    //in memory index of the retained topics, rebuilt on startup. Updated together with m_retainedStore under its lock
+    private final RetainedTopicsIndex m_retainedIndex = new RetainedTopicsIndex();
 
 
     MapDBMessagesStore(DB db) {
@@ -50,11 +53,17 @@ class MapDBMessagesStore implements IMessagesStore {
     public void initStore() {
         m_retainedStore = m_db.getHashMap("retained");
         m_persistentMessageStore = m_db.getHashMap("persistedMessages");
+        for (String topic : m_retainedStore.keySet()) {
+            m_retainedIndex.add(topic);
+        }
     }
 
     @Override
     public void storeRetained(String topic, MessageGUID guid) {
-        m_retainedStore.put(topic, guid);
+        synchronized (m_retainedIndex) {
+            m_retainedStore.put(topic, guid);
+            m_retainedIndex.add(topic);
+        }
     }
 
     @Override
@@ -73,6 +82,24 @@ class MapDBMessagesStore implements IMessagesStore {
         return results;
     }
 
+    @Override
+    public Collection<StoredMessage> searchRetained(String topicFilter) {
+        List<StoredMessage> results = new ArrayList<>();
+        for (String topic : m_retainedIndex.matching(topicFilter)) {
+            MessageGUID guid = m_retainedStore.get(topic);
+            if (guid == null) {
+                //cleaned concurrently
+                continue;
+            }
+            StoredMessage storedMsg = m_persistentMessageStore.get(guid);
+            if (storedMsg != null) {
+                results.add(storedMsg);
+            }
+        }
+        LOG.debug("searchRetained found {} retained messages matching <{}>", results.size(), topicFilter);
+        return results;
+    }
+
     @Override
     public MessageGUID storePublishForFuture(StoredMessage evt) {
         LOG.debug("storePublishForFuture store evt {}", evt);
@@ -126,7 +153,10 @@ class MapDBMessagesStore implements IMessagesStore {
 
     @Override
     public void cleanRetained(String topic) {
-        m_retainedStore.remove(topic);
+        synchronized (m_retainedIndex) {
+            m_retainedStore.remove(topic);
+            m_retainedIndex.remove(topic);
+        }
     }
 
     @Override
@@ -22,6 +22,7 @@ import io.moquette.spi.MessageGUID;
 import io.moquette.spi.impl.Utils;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.spi.persistence.MapDBPersistentStore.PersistentSession;
+import org.mapdb.Atomic;
 import org.mapdb.DB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +49,9 @@ class MapDBSessionsStore implements ISessionsStore {
     private ConcurrentMap<String, List<MessageGUID>> m_enqueuedStore;
     //maps clientID->[MessageId -> guid]
     private ConcurrentMap<String, Map<Integer, MessageGUID>> m_secondPhaseStore;
+    //maps clientID -> sequence number of the last change of its subscriptions
+    private ConcurrentMap<String, Long> m_subscriptionsChanges;
+    private Atomic.Long m_subscriptionsSequence;
 
     private final DB m_db;
     private final MapDBMessagesStore m_messagesStore;
@@ -64,6 +68,8 @@ class MapDBSessionsStore implements ISessionsStore {
         m_persistentSessions = m_db.getHashMap("sessions");
         m_enqueuedStore = m_db.getHashMap("sessionQueue");
         m_secondPhaseStore = m_db.getHashMap("secondPhase");
+        m_subscriptionsChanges = m_db.getHashMap("subscriptionsChanges");
+        m_subscriptionsSequence = m_db.getAtomicLong("subscriptionsSequence");
     }
 
     @Override
@@ -128,6 +134,54 @@ class MapDBSessionsStore implements ISessionsStore {
         return subscriptions;
     }
 
+    @Override
+    public List<Subscription> getSubscriptions(String clientID) {
+        if (!m_persistentSessions.containsKey(clientID) || !m_db.exists("subscriptions_" + clientID)) {
+            return Collections.emptyList();
+        }
+        ConcurrentMap<String, Subscription> clientSubscriptions = m_db.getHashMap("subscriptions_" + clientID);
+        return new ArrayList<>(clientSubscriptions.values());
+    }
+
+    @Override
+    public void markSubscriptionsChanged(String clientID) {
+        Long sequence = m_subscriptionsSequence.incrementAndGet();
+        //keep the greatest sequence when concurrent changes of the same client race
+        while (true) {
+            Long previous = m_subscriptionsChanges.putIfAbsent(clientID, sequence);
+            if (previous == null || previous >= sequence
+                    || m_subscriptionsChanges.replace(clientID, previous, sequence)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long subscriptionsSequence() {
+        return m_subscriptionsSequence.get();
+    }
+
+    @Override
+    public Collection<String> clientsChangedSince(long sequence) {
+        List<String> clientIDs = new ArrayList<>();
+        for (Map.Entry<String, Long> change : m_subscriptionsChanges.entrySet()) {
+            if (change.getValue() > sequence) {
+                clientIDs.add(change.getKey());
+            }
+        }
+        return clientIDs;
+    }
+
+    @Override
+    public void pruneSubscriptionsChanges(long sequence) {
+        for (Map.Entry<String, Long> change : m_subscriptionsChanges.entrySet()) {
+            if (change.getValue() <= sequence) {
+                //a newer change of the client recorded meanwhile stays
+                m_subscriptionsChanges.remove(change.getKey(), change.getValue());
+            }
+        }
+    }
+
     @Override
     public boolean contains(String clientID) {
         return m_db.exists("subscriptions_" + clientID);
@@ -18,6 +18,7 @@ package io.moquette.spi.impl;
 import io.moquette.spi.IMessagesStore;
 import io.moquette.spi.IMatchingCondition;
 import io.moquette.spi.MessageGUID;
+import io.moquette.spi.impl.subscriptions.RetainedTopicsIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +34,7 @@ public class MemoryMessagesStore implements IMessagesStore {
     private static final Logger LOG = LoggerFactory.getLogger(MemoryMessagesStore.class);
 
     private Map<String, MessageGUID> m_retainedStore = new HashMap<>();
+    private RetainedTopicsIndex m_retainedIndex = new RetainedTopicsIndex();
     private Map<MessageGUID, StoredMessage> m_persistentMessageStore = new HashMap<>();
     private Map<String, Map<Integer, MessageGUID>> m_messageToGuids;
 
@@ -47,6 +49,16 @@ public class MemoryMessagesStore implements IMessagesStore {
     @Override
     public void storeRetained(String topic, MessageGUID guid) {
         m_retainedStore.put(topic, guid);
+        m_retainedIndex.add(topic);
+    }
+
+    @Override
+    public Collection<StoredMessage> searchRetained(String topicFilter) {
+        List<StoredMessage> results = new ArrayList<>();
+        for (String topic : m_retainedIndex.matching(topicFilter)) {
+            results.add(m_persistentMessageStore.get(m_retainedStore.get(topic)));
+        }
+        return results;
     }
 
     @Override
@@ -106,6 +118,7 @@ public class MemoryMessagesStore implements IMessagesStore {
     @Override
     public void cleanRetained(String topic) {
         m_retainedStore.remove(topic);
+        m_retainedIndex.remove(topic);
     }
 
     @Override
@@ -25,6 +25,7 @@ import io.moquette.spi.IMessagesStore.StoredMessage;
 import io.moquette.spi.impl.security.PermitAllAuthorizator;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import io.moquette.spi.impl.subscriptions.SubscriptionsStore;
+import io.moquette.spi.impl.subscriptions.Topic;
 import io.moquette.spi.security.IAuthorizator;
 import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.Before;
@@ -106,13 +107,18 @@ public class ProtocolProcessorTest {
         //subscriptions.matches(topic) redefine the method to return true
         SubscriptionsStore subs = new SubscriptionsStore() {
             @Override
-            public List<Subscription> matches(String topic) {
-                if (topic.equals(FAKE_TOPIC)) {
+            public List<Subscription> matches(Topic topic) {
+                if (topic.toString().equals(FAKE_TOPIC)) {
                     return Collections.singletonList(subscription);
                 } else {
                     throw new IllegalArgumentException("Expected " + FAKE_TOPIC + " buf found " + topic);
                 }
             }
+
+            @Override
+            public boolean mayMatch(Topic topic) {
+                return true;
+            }
         };
         
         //simulate a connect that register a clientID to an IoSession
@@ -153,13 +159,18 @@ public class ProtocolProcessorTest {
         //subscriptions.matches(topic) redefine the method to return true
         SubscriptionsStore subs = new SubscriptionsStore() {
             @Override
-            public List<Subscription> matches(String topic) {
-                if (topic.equals(FAKE_TOPIC)) {
+            public List<Subscription> matches(Topic topic) {
+                if (topic.toString().equals(FAKE_TOPIC)) {
                     return Arrays.asList(subscription, subscriptionClient2);
                 } else {
                     throw new IllegalArgumentException("Expected " + FAKE_TOPIC + " buf found " + topic);
                 }
             }
+
+            @Override
+            public boolean mayMatch(Topic topic) {
+                return true;
+            }
         };
         
         //simulate a connect that register a clientID to an IoSession
@@ -318,8 +329,8 @@ public class ProtocolProcessorTest {
         //subscriptions.matches(topic) redefine the method to return true
         SubscriptionsStore subs = new SubscriptionsStore() {
             @Override
-            public List<Subscription> matches(String topic) {
-                if (topic.equals(FAKE_TOPIC)) {
+            public List<Subscription> matches(Topic topic) {
+                if (topic.toString().equals(FAKE_TOPIC)) {
                     return Collections.singletonList(subscription);
                 } else {
                     throw new IllegalArgumentException("Expected " + FAKE_TOPIC + " buf found " + topic);
@@ -362,11 +373,46 @@ public class ProtocolProcessorTest {
         assertEquals(FAKE_TOPIC, ((PublishMessage) pubMessage).getTopicName());
     }
 
+    @Test
+    public void testPublishQoS0WithoutSubscribersIsDroppedEarly() {
+        ByteBuffer buffer = ByteBuffer.allocate(5).put("Hello".getBytes());
+        PublishMessage msg = new PublishMessage();
+        msg.setTopicName(FAKE_TOPIC);
+        msg.setQos(QOSType.MOST_ONE);
+        msg.setPayload(buffer);
+        msg.setRetainFlag(false);
+        m_processor.processPublish(m_channel, msg);
+
+        assertEquals(1, m_processor.droppedEarlyPublishes());
+        assertNull(m_channel.readOutbound());
+    }
+
+    @Test
+    public void testPublishQoS1WithoutSubscribersIsNotStored() {
+        IMessagesStore messagesStore = spy(m_messagesStore);
+        m_processor.init(subscriptions, messagesStore, m_sessionStore, null, true, new PermitAllAuthorizator(),
+                NO_OBSERVERS_INTERCEPTOR);
+        PublishMessage msg = new PublishMessage();
+        msg.setTopicName(FAKE_TOPIC);
+        msg.setQos(QOSType.LEAST_ONE);
+        msg.setPayload(ByteBuffer.wrap("Hello".getBytes()));
+        msg.setMessageID(1);
+        msg.setRetainFlag(false);
+        msg.setLocal(false);
+
+        //Exercise
+        m_processor.processPublish(m_channel, msg);
+
+        //Verify
+        verify(messagesStore, never()).storePublishForFuture(any(StoredMessage.class));
+        assertNull(m_channel.readOutbound());
+    }
+
     @Test
     public void testRepublishAndConsumePersistedMessages_onReconnect() {
         SubscriptionsStore subs = mock(SubscriptionsStore.class);
         List<Subscription> emptySubs = Collections.emptyList();
-        when(subs.matches(anyString())).thenReturn(emptySubs);
+        when(subs.matches(any(Topic.class))).thenReturn(emptySubs);
 
         StoredMessage retainedMessage = new StoredMessage("Hello".getBytes(), QOSType.EXACTLY_ONCE, "/topic");
         retainedMessage.setRetained(true);
@@ -394,7 +440,7 @@ public class ProtocolProcessorTest {
         SubscriptionsStore mockedSubscriptions = mock(SubscriptionsStore.class);
         Subscription inactiveSub = new Subscription("Subscriber", "/topic", QOSType.LEAST_ONE);
         List<Subscription> inactiveSubscriptions = Collections.singletonList(inactiveSub);
-        when(mockedSubscriptions.matches(eq("/topic"))).thenReturn(inactiveSubscriptions);
+        when(mockedSubscriptions.matches(eq(Topic.asTopic("/topic")))).thenReturn(inactiveSubscriptions);
         m_processor = new ProtocolProcessor();
         m_processor.init(mockedSubscriptions, m_messagesStore, m_sessionStore, null, true, new PermitAllAuthorizator(),
                 NO_OBSERVERS_INTERCEPTOR);
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockCacheTest {
+
+    @Test
+    public void testEvictsTheEntryNotReferenced() {
+        ClockCache<String, String> cache = new ClockCache<>(2);
+        cache.putIfAbsent("a", "A");
+        cache.putIfAbsent("b", "B");
+        cache.get("a");
+
+        //Exercise
+        cache.putIfAbsent("c", "C");
+
+        //Verify
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testKeepsTheFirstValue() {
+        ClockCache<String, String> cache = new ClockCache<>(2);
+        cache.putIfAbsent("a", "A");
+
+        //Exercise
+        String cached = cache.putIfAbsent("a", "other");
+
+        //Verify
+        assertEquals("A", cached);
+        assertEquals("A", cache.get("a"));
+    }
+
+    @Test
+    public void testPutReplacesTheValue() {
+        ClockCache<String, String> cache = new ClockCache<>(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        //Exercise
+        cache.put("a", "other");
+
+        //Verify
+        assertEquals("other", cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testZeroCapacityDisablesTheCache() {
+        ClockCache<String, String> cache = new ClockCache<>(0);
+
+        //Exercise
+        cache.putIfAbsent("a", "A");
+
+        //Verify
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.spi.ISessionsStore.ClientTopicCouple;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the tests of the subscriptions store on the concurrent tree.
+ */
+public class ConcurrentSubscriptionsStoreTest extends SubscriptionsStoreTest {
+
+    @Override
+    protected SubscriptionsStore newStore() {
+        return new SubscriptionsStore(0, SubscriptionsStore.TreeType.CONCURRENT);
+    }
+
+    @Test
+    public void testCompactPrunesTheDeadBranches() throws ParseException {
+        ConcurrentTree tree = new ConcurrentTree();
+        tree.add(SubscriptionsStore.parseTopic("finance/stock/ibm"),
+                new Subscription("FAKE_CLI_ID_1", "finance/stock/ibm", AbstractMessage.QOSType.MOST_ONE));
+        tree.add(SubscriptionsStore.parseTopic("sport/tennis"),
+                new Subscription("FAKE_CLI_ID_1", "sport/tennis", AbstractMessage.QOSType.MOST_ONE));
+        //empty the sport/tennis node without pruning it
+        ConcurrentTree.Node tennis = tree.find(SubscriptionsStore.parseTopic("sport/tennis"));
+        tennis.remove(new ClientTopicCouple("FAKE_CLI_ID_1", "sport/tennis"), tree.stats());
+        assertEquals(1, tree.countNodes()[1]);
+
+        tree.compact();
+
+        assertArrayEquals(new int[] {3, 0}, tree.countNodes());
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    public void testConcurrentAddsOnTheSamePath() throws InterruptedException {
+        final SubscriptionsStore concurrentStore = newStore();
+        final int threads = 4;
+        final int subsPerThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int threadIdx = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < subsPerThread; i++) {
+                        String clientID = "CLI_" + threadIdx + "_" + i;
+                        concurrentStore.add(new Subscription(clientID, "finance/" + (i % 10) + "/+", AbstractMessage.QOSType.MOST_ONE));
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * subsPerThread, concurrentStore.size());
+        assertEquals(concurrentStore.nodesCount(), concurrentStore.computeMetrics().nodes());
+        assertEquals(threads * subsPerThread / 10, concurrentStore.matches("finance/3/ibm").size());
+    }
+}
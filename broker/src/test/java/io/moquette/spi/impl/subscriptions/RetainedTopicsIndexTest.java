@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetainedTopicsIndexTest {
+
+    private static final List<String> TOPICS = Arrays.asList("finance", "finance/stock", "finance/stock/ibm",
+            "finance/stock/apple", "finance/bond/ibm", "/finance", "foo//bar", "foo/bar/", "sport/tennis/player1");
+
+    private static final List<String> FILTERS = Arrays.asList("finance", "finance/#", "finance/+", "finance/+/ibm",
+            "+/stock/#", "#", "+", "/+", "foo//+", "foo/+/+", "foo/bar/+", "finance/+/#", "finance/stock/ibm/#",
+            "finance/stock/+/+", "sport/+/+/#");
+
+    @Test
+    public void testMatchingFollowsTheTopicMatchRules() {
+        RetainedTopicsIndex index = new RetainedTopicsIndex();
+        for (String topic : TOPICS) {
+            index.add(topic);
+        }
+
+        for (String filter : FILTERS) {
+            Set<String> expected = new HashSet<>();
+            for (String topic : TOPICS) {
+                if (new Topic(topic).match(new Topic(filter))) {
+                    expected.add(topic);
+                }
+            }
+            List<String> matching = index.matching(filter);
+            assertEquals("matching " + filter, expected, new HashSet<>(matching));
+            assertEquals("duplicates matching " + filter, expected.size(), matching.size());
+        }
+    }
+
+    @Test
+    public void testRemovedTopicsDontMatch() {
+        RetainedTopicsIndex index = new RetainedTopicsIndex();
+        index.add("finance/stock/ibm");
+        index.add("finance/stock/apple");
+
+        index.remove("finance/stock/ibm");
+        index.remove("finance/never/added");
+
+        assertEquals(Arrays.asList("finance/stock/apple"), index.matching("finance/#"));
+    }
+
+    @Test
+    public void testRemovePrunesTheEmptyNodes() {
+        RetainedTopicsIndex index = new RetainedTopicsIndex();
+        index.add("finance");
+        index.add("finance/stock/ibm");
+        index.add("finance/stock/ibm/quotes");
+
+        //Exercise
+        index.remove("finance/stock/ibm/quotes");
+        index.remove("finance/stock/ibm");
+
+        //Verify
+        assertEquals(1, index.nodesCount());
+        assertEquals(Arrays.asList("finance"), index.matching("#"));
+
+        //Exercise
+        index.remove("finance");
+
+        //Verify
+        assertEquals(0, index.nodesCount());
+        assertTrue(index.matching("#").isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.spi.impl.MemoryStorageService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rough measure of the heap retained by the subscriptions store, reported as bytes per subscription,
+ * to catch the regressions of the tree memory layout. Slow and dependent on the GC, it's run only with the
+ * benchmarks profile: mvn -P benchmarks test
+ *
+ * @author andrea
+ */
+public class SubscriptionsStoreFootprintIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriptionsStoreFootprintIT.class);
+
+    private static final int CLIENTS = 2000;
+    private static final int FILTERS_PER_CLIENT = 50;
+    //loose bound, the measure depends on the JVM and the GC
+    private static final long MAX_BYTES_PER_SUBSCRIPTION = 1024;
+
+    @Test
+    public void testCopyOnWriteTreeFootprint() throws Exception {
+        checkFootprint(SubscriptionsStore.TreeType.COPY_ON_WRITE);
+    }
+
+    @Test
+    public void testConcurrentTreeFootprint() throws Exception {
+        checkFootprint(SubscriptionsStore.TreeType.CONCURRENT);
+    }
+
+    private void checkFootprint(SubscriptionsStore.TreeType treeType) throws Exception {
+        long before = usedHeap();
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            for (int f = 0; f < FILTERS_PER_CLIENT; f++) {
+                //every client has its own instance of the filter strings, as when they're decoded from the wire
+                String filter = new StringBuilder("building/").append(c % 40).append("/floor/").append(f)
+                        .append(f % 5 == 0 ? "/+" : "/temperature").toString();
+                subscriptions.add(new Subscription("client" + c, filter, AbstractMessage.QOSType.LEAST_ONE));
+            }
+        }
+        int expected = subscriptions.size();
+
+        SubscriptionsStore store = new SubscriptionsStore(0, treeType);
+        MemoryStorageService storageService = new MemoryStorageService();
+        storageService.initStore();
+        store.init(storageService.sessionsStore());
+        for (int i = 0; i < subscriptions.size(); i += 1000) {
+            store.addAll(subscriptions.subList(i, Math.min(i + 1000, subscriptions.size())));
+        }
+        //only the store has to retain the subscriptions now
+        subscriptions = null;
+        long after = usedHeap();
+
+        assertEquals(expected, store.size());
+        long bytesPerSubscription = (after - before) / expected;
+        LOG.info("{} tree: {} bytes per subscription, {} nodes", treeType, bytesPerSubscription, store.nodesCount());
+        assertTrue("retained " + bytesPerSubscription + " bytes per subscription",
+                bytesPerSubscription < MAX_BYTES_PER_SUBSCRIPTION);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -15,6 +15,7 @@
  */
 package io.moquette.spi.impl.subscriptions;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.Arrays;
@@ -42,9 +43,16 @@ public class SubscriptionsStoreTest {
     public SubscriptionsStoreTest() {
     }
 
+    /**
+     * The store under test, overridden to run the same tests on the other tree implementations.
+     * */
+    protected SubscriptionsStore newStore() {
+        return new SubscriptionsStore();
+    }
+
     @Before
     public void setUp() throws IOException {
-        store = new SubscriptionsStore();
+        store = newStore();
         MemoryStorageService storageService = new MemoryStorageService();
         storageService.initStore();
         this.sessionsStore = storageService.sessionsStore();
@@ -255,7 +263,7 @@ public class SubscriptionsStoreTest {
     }
     
     private void assertMatch(String subscription, String topic) {
-        store = new SubscriptionsStore();
+        store = newStore();
         MemoryStorageService memStore = new MemoryStorageService();
         memStore.initStore();
         ISessionsStore aSessionsStore = memStore.sessionsStore();
@@ -267,7 +275,7 @@ public class SubscriptionsStoreTest {
     }
     
     private void assertNotMatch(String subscription, String topic) {
-        store = new SubscriptionsStore();
+        store = newStore();
         MemoryStorageService memStore = new MemoryStorageService();
         memStore.initStore();
         store.init(memStore.sessionsStore());
@@ -306,6 +314,26 @@ public class SubscriptionsStoreTest {
         assertEquals(1, store.size());
     }
 
+    @Test
+    public void testRemoveManyClientsSubscriptions() {
+        Subscription sub1 = new Subscription("FAKE_CLID_1", "finance/#", AbstractMessage.QOSType.MOST_ONE);
+        Subscription sub1bis = new Subscription("FAKE_CLID_1", "sport/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription sub2 = new Subscription("FAKE_CLID_2", "finance/#", AbstractMessage.QOSType.MOST_ONE);
+        Subscription sub3 = new Subscription("FAKE_CLID_3", "finance/ibm", AbstractMessage.QOSType.MOST_ONE);
+        for (Subscription sub : Arrays.asList(sub1, sub1bis, sub2, sub3)) {
+            sessionsStore.addNewSubscription(sub);
+            store.add(sub.asClientTopicCouple());
+        }
+
+        //Exercise
+        store.removeForClients(Arrays.asList("FAKE_CLID_1", "FAKE_CLID_2"));
+
+        //Verify
+        assertEquals(1, store.size());
+        assertEquals(Arrays.asList(sub3), store.matches("finance/ibm"));
+        assertTrue(store.matches("sport/tennis").isEmpty());
+    }
+
     @Test
     public void testOverlappingSubscriptions() {
         Subscription genericSub = new Subscription("FAKE_CLI_ID_1", "a/+", AbstractMessage.QOSType.EXACTLY_ONCE);
@@ -373,7 +401,7 @@ public class SubscriptionsStoreTest {
     
     @Test
     public void removeSubscription_withDifferentClients_subscribedSameTopic() {
-        SubscriptionsStore aStore = new SubscriptionsStore();
+        SubscriptionsStore aStore = newStore();
         MemoryStorageService memStore = new MemoryStorageService();
         memStore.initStore();
         ISessionsStore sessionsStore = memStore.sessionsStore();
@@ -427,6 +455,361 @@ public class SubscriptionsStoreTest {
         assertEquals(client1SubQoS2.getRequestedQos(), client1Sub.getRequestedQos()); //client1SubQoS2 should override client1SubQoS0
     }
 
+    @Test
+    public void testMatchesCacheIsInvalidatedOnTreeChanges() {
+        SubscriptionsStore cachingStore = new SubscriptionsStore(10);
+        cachingStore.init(sessionsStore);
+        Subscription financeSub = new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE);
+        sessionsStore.addNewSubscription(financeSub);
+        cachingStore.add(financeSub.asClientTopicCouple());
+
+        assertEquals(Arrays.asList(financeSub), cachingStore.matches("finance/ibm"));
+        assertEquals(Arrays.asList(financeSub), cachingStore.matches("finance/ibm"));
+        assertEquals(1, cachingStore.matchesCacheHits());
+        assertEquals(1, cachingStore.matchesCacheMisses());
+
+        //Exercise
+        Subscription ibmSub = new Subscription("FAKE_CLI_ID_2", "finance/ibm", AbstractMessage.QOSType.MOST_ONE);
+        sessionsStore.addNewSubscription(ibmSub);
+        cachingStore.add(ibmSub.asClientTopicCouple());
+
+        //Verify
+        assertTrue(cachingStore.matches("finance/ibm").containsAll(Arrays.asList(financeSub, ibmSub)));
+        assertEquals(2, cachingStore.matchesCacheMisses());
+
+        cachingStore.removeForClient("FAKE_CLI_ID_2");
+        assertEquals(Arrays.asList(financeSub), cachingStore.matches("finance/ibm"));
+        assertEquals(3, cachingStore.matchesCacheMisses());
+    }
+
+    @Test
+    public void testMatchesDoesntLookupTheSessionsStore() {
+        Subscription ibmSub = new Subscription("FAKE_CLI_ID_1", "finance/ibm", AbstractMessage.QOSType.LEAST_ONE);
+        //not stored in the sessions store, the tree entry carries the QoS
+        store.add(ibmSub);
+
+        List<Subscription> matching = store.matches("finance/ibm");
+
+        assertEquals(1, matching.size());
+        assertEquals(AbstractMessage.QOSType.LEAST_ONE, matching.get(0).getRequestedQos());
+    }
+
+    @Test
+    public void testValidateSharedSubscriptions() {
+        assertTrue(SubscriptionsStore.validate("$share/group/finance/+"));
+        assertFalse(SubscriptionsStore.validate("$share/group"));
+        assertFalse(SubscriptionsStore.validate("$share//finance"));
+        assertFalse(SubscriptionsStore.validate("$share/group/"));
+        assertFalse(SubscriptionsStore.validate("$share/gr+up/finance"));
+        assertFalse(SubscriptionsStore.validate("$share/group/finance/#/ibm"));
+    }
+
+    @Test
+    public void testSharedSubscriptionsMatchTheirFilter() {
+        Subscription sharedSub1 = new Subscription("FAKE_CLI_ID_1", "$share/group/finance/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription sharedSub2 = new Subscription("FAKE_CLI_ID_2", "$share/group/finance/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription plainSub = new Subscription("FAKE_CLI_ID_1", "finance/ibm", AbstractMessage.QOSType.LEAST_ONE);
+        store.add(sharedSub1);
+        store.add(sharedSub2);
+        store.add(plainSub);
+
+        //the shared subscriptions aren't merged with the plain one of the same client
+        List<Subscription> matching = store.matches("finance/ibm");
+        assertEquals(3, matching.size());
+        assertTrue(matching.containsAll(Arrays.asList(sharedSub1, sharedSub2, plainSub)));
+        assertTrue(store.matches("$share/group/finance/ibm").isEmpty());
+
+        store.removeSubscription("$share/group/finance/+", "FAKE_CLI_ID_1");
+        matching = store.matches("finance/ibm");
+        assertEquals(2, matching.size());
+        assertTrue(matching.containsAll(Arrays.asList(sharedSub2, plainSub)));
+    }
+
+    @Test
+    public void testRemoveNeverSubscribedFilterDoesntCreateNodes() {
+        store.add(new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE));
+
+        store.removeSubscription("sport/tennis/+", "FAKE_CLI_ID_1");
+        store.removeSubscription("finance/+/stock", "FAKE_CLI_ID_1");
+
+        assertEquals(2, store.nodesCount());
+    }
+
+    @Test
+    public void testRemovePrunesTheEmptyNodes() {
+        store.add(new Subscription("FAKE_CLI_ID_1", "finance/stock/+", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_2", "finance/+", AbstractMessage.QOSType.MOST_ONE));
+        assertEquals(4, store.nodesCount());
+
+        store.removeSubscription("finance/stock/+", "FAKE_CLI_ID_1");
+        //finance is kept because of the finance/+ subscription
+        assertEquals(2, store.nodesCount());
+        assertEquals(0, store.emptyNodesCount());
+
+        store.removeForClient("FAKE_CLI_ID_2");
+        assertEquals(0, store.nodesCount());
+        assertTrue(store.matches("finance/stock").isEmpty());
+    }
+
+    @Test
+    public void testLiteralFiltersAreKeptOutOfTheTree() {
+        Subscription literalSub = new Subscription("FAKE_CLI_ID_1", "devices/123/cmd", AbstractMessage.QOSType.MOST_ONE);
+        Subscription wildcardSub = new Subscription("FAKE_CLI_ID_2", "devices/+/cmd", AbstractMessage.QOSType.MOST_ONE);
+        Subscription sharedSub = new Subscription("FAKE_CLI_ID_3", "$share/group/devices/123/cmd",
+                AbstractMessage.QOSType.MOST_ONE);
+        store.add(literalSub);
+        store.add(wildcardSub);
+        store.add(sharedSub);
+
+        //only the wildcard filter has nodes
+        assertEquals(3, store.nodesCount());
+        assertEquals(3, store.size());
+        List<Subscription> matching = store.matches("devices/123/cmd");
+        assertEquals(3, matching.size());
+        assertTrue(matching.containsAll(Arrays.asList(literalSub, wildcardSub, sharedSub)));
+        assertEquals(Arrays.asList(wildcardSub), store.matches("devices/456/cmd"));
+        assertTrue(store.matches("devices/123").isEmpty());
+        assertTrue(store.matches("devices/123/cmd/").isEmpty());
+
+        store.removeSubscription("devices/123/cmd", "FAKE_CLI_ID_1");
+        store.removeForClient("FAKE_CLI_ID_3");
+        assertEquals(Arrays.asList(wildcardSub), store.matches("devices/123/cmd"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testMayMatchTheTopicsWithSubscribers() {
+        assertFalse(store.mayMatch(Topic.asTopic("sensors/1/temperature")));
+        store.add(new Subscription("FAKE_CLI_ID_1", "devices/123/cmd", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_1", "sensors/+/humidity", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_2", "$share/group/alarms/#", AbstractMessage.QOSType.MOST_ONE));
+
+        assertTrue(store.mayMatch(Topic.asTopic("devices/123/cmd")));
+        assertTrue(store.mayMatch(Topic.asTopic("sensors/1/humidity")));
+        assertTrue(store.mayMatch(Topic.asTopic("alarms")));
+        assertTrue(store.mayMatch(Topic.asTopic("alarms/fire/1")));
+        assertFalse(store.mayMatch(Topic.asTopic("telemetry/1/temperature")));
+
+        store.removeSubscription("sensors/+/humidity", "FAKE_CLI_ID_1");
+        assertFalse(store.mayMatch(Topic.asTopic("sensors/1/humidity")));
+        store.removeForClient("FAKE_CLI_ID_2");
+        assertFalse(store.mayMatch(Topic.asTopic("alarms/fire/1")));
+        store.add(new Subscription("FAKE_CLI_ID_3", "+/1/temperature", AbstractMessage.QOSType.MOST_ONE));
+        assertTrue(store.mayMatch(Topic.asTopic("telemetry/1/temperature")));
+    }
+
+    @Test
+    public void testMayMatchWheneverTheTreeMatches() {
+        String[] filters = {"a", "a/b", "a/+", "a/#", "/", "/a", "/+", "a/", "a//", "a//b", "+/b", "#", "a/+/c/"};
+        String[] topics = {"a", "a/b", "a/c", "a/b/c", "/", "/a", "//", "a/", "a//", "a//b", "b", "b/b", "a/x/c/",
+                "a/x/c//"};
+        for (String filter : filters) {
+            SubscriptionsStore single = newStore();
+            single.init(sessionsStore);
+            single.add(new Subscription("FAKE_CLI_ID_1", filter, AbstractMessage.QOSType.MOST_ONE));
+            for (String topic : topics) {
+                if (!single.matches(topic).isEmpty()) {
+                    assertTrue(filter + " matches " + topic, single.mayMatch(Topic.asTopic(topic)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactedPrunesTheDeadBranches() {
+        TreeNode root = SubscriptionsStore.buildTree(Arrays.asList(
+                new Subscription("FAKE_CLI_ID_1", "finance/stock/ibm", AbstractMessage.QOSType.MOST_ONE),
+                new Subscription("FAKE_CLI_ID_1", "sport/tennis", AbstractMessage.QOSType.MOST_ONE)));
+        //leave the sport/tennis branch without subscriptions
+        root.childWithToken(Token.intern("sport")).childWithToken(Token.intern("tennis"))
+                .remove(new ClientTopicCouple("FAKE_CLI_ID_1", "sport/tennis"));
+
+        TreeNode compacted = SubscriptionsStore.compacted(root);
+
+        assertEquals(1, compacted.childrenCount());
+        assertNotNull(compacted.childWithToken(Token.intern("finance")));
+        //the original tree is left untouched for the readers
+        assertEquals(2, root.childrenCount());
+        assertSame(compacted, SubscriptionsStore.compacted(compacted));
+    }
+
+    @Test
+    public void testInitBuildsTheTreeFromStoredSubscriptions() {
+        Subscription financeSub = new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription ibmSub = new Subscription("FAKE_CLI_ID_2", "finance/ibm", AbstractMessage.QOSType.LEAST_ONE);
+        sessionsStore.createNewSession("FAKE_CLI_ID_1", false);
+        sessionsStore.createNewSession("FAKE_CLI_ID_2", false);
+        sessionsStore.addNewSubscription(financeSub);
+        sessionsStore.addNewSubscription(ibmSub);
+
+        //Exercise
+        SubscriptionsStore reloaded = newStore();
+        reloaded.init(sessionsStore);
+
+        //Verify
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.matches("finance/ibm").containsAll(Arrays.asList(financeSub, ibmSub)));
+    }
+
+    @Test
+    public void testInitFromSnapshotReplaysTheNewerChanges() throws IOException {
+        Subscription financeSub = new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription ibmSub = new Subscription("FAKE_CLI_ID_2", "finance/ibm", AbstractMessage.QOSType.LEAST_ONE);
+        Subscription sportSub = new Subscription("FAKE_CLI_ID_3", "sport/#", AbstractMessage.QOSType.EXACTLY_ONCE);
+        subscribe(financeSub);
+        subscribe(ibmSub);
+        File snapshotFile = File.createTempFile("subscriptions", ".snapshot");
+        snapshotFile.deleteOnExit();
+        store.snapshot().write(snapshotFile);
+
+        //changes after the snapshot
+        sessionsStore.removeSubscription("finance/ibm", "FAKE_CLI_ID_2");
+        store.removeSubscription("finance/ibm", "FAKE_CLI_ID_2");
+        subscribe(sportSub);
+
+        //Exercise
+        SubscriptionsSnapshot snapshot = SubscriptionsSnapshot.read(snapshotFile);
+        assertEquals(2, snapshot.getSubscriptions().size());
+        SubscriptionsStore reloaded = newStore();
+        reloaded.init(sessionsStore, snapshot);
+
+        //Verify
+        assertEquals(2, reloaded.size());
+        assertEquals(Arrays.asList(financeSub), reloaded.matches("finance/ibm"));
+        List<Subscription> sportMatching = reloaded.matches("sport/tennis");
+        assertEquals(1, sportMatching.size());
+        assertEquals(AbstractMessage.QOSType.EXACTLY_ONCE, sportMatching.get(0).getRequestedQos());
+    }
+
+    @Test
+    public void testInitIgnoresASnapshotAheadOfTheSessionsStore() throws IOException {
+        subscribe(new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE));
+        SubscriptionsSnapshot snapshot = store.snapshot();
+
+        //a store that lost the changes of the snapshot
+        MemoryStorageService emptyStorage = new MemoryStorageService();
+        emptyStorage.initStore();
+        SubscriptionsStore reloaded = newStore();
+        reloaded.init(emptyStorage.sessionsStore(), snapshot);
+
+        assertEquals(0, reloaded.size());
+    }
+
+    private void subscribe(Subscription sub) {
+        if (sessionsStore.sessionForClient(sub.getClientId()) == null) {
+            sessionsStore.createNewSession(sub.getClientId(), false);
+        }
+        sessionsStore.addNewSubscription(sub);
+        store.add(sub);
+    }
+
+    @Test
+    public void testStoredSubscriptionsShareTheTopicFilter() {
+        String filter = new String("finance/stock/+");
+        Subscription first = new Subscription("FAKE_CLI_ID_1", filter, AbstractMessage.QOSType.MOST_ONE);
+        assertSame(filter, first.getTopicFilter());
+
+        //Exercise
+        store.add(first);
+        store.add(new Subscription("FAKE_CLI_ID_2", new String(filter), AbstractMessage.QOSType.MOST_ONE));
+
+        //Verify
+        List<Subscription> matching = store.matches("finance/stock/ibm");
+        assertEquals(2, matching.size());
+        assertSame(filter.intern(), matching.get(0).getTopicFilter());
+        assertSame(filter.intern(), matching.get(1).getTopicFilter());
+    }
+
+    @Test
+    public void testAddsRacingWithTheRemovalOfTheClient() throws InterruptedException {
+        final int filters = 2000;
+        Thread adder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < filters; i++) {
+                    store.add(new Subscription("FAKE_CLI_ID_1", "finance/" + i + "/+", AbstractMessage.QOSType.MOST_ONE));
+                }
+            }
+        });
+        adder.start();
+        while (adder.isAlive()) {
+            store.removeForClient("FAKE_CLI_ID_1");
+        }
+        adder.join();
+
+        //Exercise
+        store.removeForClient("FAKE_CLI_ID_1");
+
+        //Verify, no subscription escaped the index of the client
+        assertEquals(0, store.size());
+        assertEquals(0, store.computeMetrics().subscriptions());
+    }
+
+    @Test
+    public void testMetricsFollowTheChanges() {
+        store.add(new Subscription("FAKE_CLI_ID_1", "finance/stock/+", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_1", "finance/#", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_2", "finance/stock/+", AbstractMessage.QOSType.MOST_ONE));
+        store.add(new Subscription("FAKE_CLI_ID_2", "sport/tennis", AbstractMessage.QOSType.MOST_ONE));
+        store.matches("finance/stock/ibm");
+
+        SubscriptionsMetrics metrics = store.computeMetrics();
+        assertEquals(4, metrics.subscriptions());
+        assertEquals(3, metrics.wildcardSubscriptions());
+        assertEquals(store.nodesCount(), metrics.nodes());
+        assertEquals(3, metrics.maxDepth());
+        assertEquals(2, metrics.widestFanOut());
+        assertEquals(1, metrics.matchesLatency().getTotalCount());
+
+        //Exercise
+        store.removeSubscription("finance/stock/+", "FAKE_CLI_ID_1");
+        store.removeForClient("FAKE_CLI_ID_2");
+        store.compact();
+
+        //Verify
+        metrics = store.computeMetrics();
+        assertEquals(1, metrics.subscriptions());
+        assertEquals(1, metrics.wildcardSubscriptions());
+        assertEquals(store.nodesCount(), metrics.nodes());
+        assertEquals(2, metrics.maxDepth());
+        assertEquals(1, metrics.widestFanOut());
+        assertEquals(0, metrics.matchesLatency().getTotalCount());
+    }
+
+    @Test
+    public void testMatchesLatencyIsSampled() {
+        store.add(new Subscription("FAKE_CLI_ID_1", "finance/#", AbstractMessage.QOSType.MOST_ONE));
+
+        //Exercise
+        for (int i = 0; i < 3 * SubscriptionsStore.MATCHES_LATENCY_SAMPLING; i++) {
+            store.matches("finance/stock/ibm");
+        }
+
+        //Verify
+        assertEquals(3, store.computeMetrics().matchesLatency().getTotalCount());
+    }
+
+    @Test
+    public void testBatchUpdate() {
+        Subscription financeSub = new Subscription("FAKE_CLI_ID_1", "finance/+", AbstractMessage.QOSType.MOST_ONE);
+        Subscription ibmSub = new Subscription("FAKE_CLI_ID_1", "finance/ibm", AbstractMessage.QOSType.MOST_ONE);
+        Subscription appleSub = new Subscription("FAKE_CLI_ID_2", "finance/apple", AbstractMessage.QOSType.MOST_ONE);
+        sessionsStore.addNewSubscription(financeSub);
+        sessionsStore.addNewSubscription(ibmSub);
+        sessionsStore.addNewSubscription(appleSub);
+        store.addAll(Arrays.asList(financeSub, ibmSub));
+        assertEquals(2, store.size());
+
+        //Exercise
+        store.batchUpdate(Arrays.asList(appleSub),
+                Arrays.asList(financeSub.asClientTopicCouple(), new ClientTopicCouple("FAKE_CLI_ID_3", "not/existing")));
+
+        //Verify
+        assertEquals(2, store.size());
+        assertEquals(Arrays.asList(ibmSub), store.matches("finance/ibm"));
+        assertEquals(Arrays.asList(appleSub), store.matches("finance/apple"));
+    }
+
     @Test
     public void testRecreatePath_emptyRoot() {
         TreeNode oldRoot = new TreeNode();
@@ -435,8 +818,8 @@ public class SubscriptionsStoreTest {
         //Verify
         assertNotNull(resp.root);
         assertNull(resp.root.m_token);
-        assertEquals(1, resp.root.m_children.size());
-        assertEquals(resp.createdNode, resp.root.m_children.get(0).m_children.get(0));
+        assertEquals(1, resp.root.childrenCount());
+        assertEquals(resp.createdNode, resp.root.childWithToken(Token.EMPTY).childWithToken(new Token("finance")));
     }
 
     @Test
@@ -448,9 +831,11 @@ public class SubscriptionsStoreTest {
         //Verify
         assertNotNull(respPlus.root);
         assertNull(respPlus.root.m_token);
-        assertEquals(1, respPlus.root.m_children.size());
-        assertTrue(respPlus.root.m_children.get(0).m_children.contains(respPlus.createdNode));
-        assertTrue(respPlus.root.m_children.get(0).m_children.contains(respFinance.createdNode));
+        assertEquals(1, respPlus.root.childrenCount());
+        TreeNode slashNode = respPlus.root.childWithToken(Token.EMPTY);
+        assertEquals(2, slashNode.childrenCount());
+        assertSame(respPlus.createdNode, slashNode.m_singleWildcardChild);
+        assertSame(respFinance.createdNode, slashNode.childWithToken(new Token("finance")));
     }
 
     private static Token[] asArray(Object... l) {
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TopicMatcherTest {
+
+    @Test
+    public void testMatches() {
+        assertTrue(TopicMatcher.matches("finance/stock/ibm", "finance/stock/ibm"));
+        assertTrue(TopicMatcher.matches("finance/stock/ibm", "finance/+/ibm"));
+        assertTrue(TopicMatcher.matches("finance/stock/ibm", "finance/#"));
+        assertTrue(TopicMatcher.matches("finance", "finance/#"));
+        assertFalse(TopicMatcher.matches("finance/stock", "finance/stock/ibm"));
+        assertFalse(TopicMatcher.matches("finance/stock/ibm", "finance/stock"));
+        assertFalse(TopicMatcher.matches("finance/stockx", "finance/stock"));
+    }
+
+    @Test
+    public void testMalformedNeverMatches() {
+        assertFalse(TopicMatcher.matches("finance/stock", "finance/#/stock"));
+        assertFalse(TopicMatcher.matches("finance/stock", "finance/st+"));
+        assertFalse(TopicMatcher.matches("finance/st#", "#"));
+    }
+
+    /**
+     * Compare with the parsing matcher all the topics made of up to 4 chars of a, /, + and #.
+     * */
+    @Test
+    public void testSameResultsOfTheParsingMatcher() {
+        List<String> topics = new ArrayList<>();
+        generate("", 4, topics);
+        for (String topicName : topics) {
+            Topic topic = new Topic(topicName);
+            for (String topicFilter : topics) {
+                boolean expected = topic.match(new Topic(topicFilter));
+                assertEquals("matching <" + topicName + "> to <" + topicFilter + ">",
+                        expected, TopicMatcher.matches(topicName, topicFilter));
+            }
+        }
+    }
+
+    private static void generate(String prefix, int maxLength, List<String> result) {
+        result.add(prefix);
+        if (prefix.length() == maxLength) {
+            return;
+        }
+        for (char c : new char[] {'a', '/', '+', '#'}) {
+            generate(prefix + c, maxLength, result);
+        }
+    }
+}
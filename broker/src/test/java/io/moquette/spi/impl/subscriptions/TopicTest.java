@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.spi.impl.subscriptions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TopicTest {
+
+    @Test
+    public void testAsTopicReturnsTheCachedInstance() {
+        Topic topic = Topic.asTopic("/finance/stock/ibm");
+        assertSame(topic, Topic.asTopic("/finance/stock/ibm"));
+        assertTrue(topic.isValid());
+        assertEquals("/finance/stock/ibm", topic.toString());
+    }
+
+    @Test
+    public void testTokensAreInterned() {
+        Topic first = new Topic("finance/stock/ibm");
+        Topic second = new Topic("finance/stock/apple");
+        assertSame(first.getTokens().get(0), second.getTokens().get(0));
+        assertSame(first.getTokens().get(1), second.getTokens().get(1));
+    }
+
+    @Test
+    public void testMalformedTopic() {
+        Topic topic = new Topic("finance/#/closingprice");
+        assertFalse(topic.isValid());
+        assertFalse(Topic.asTopic("finance").match(topic));
+    }
+
+    @Test
+    public void testMalformedTopicIsNotCached() {
+        assertNotSame(Topic.asTopic("finance/#/closingprice"), Topic.asTopic("finance/#/closingprice"));
+    }
+
+    @Test
+    public void testMatch() {
+        assertTrue(Topic.asTopic("finance/stock/ibm").match(Topic.asTopic("finance/+/ibm")));
+        assertTrue(Topic.asTopic("finance").match(Topic.asTopic("finance/#")));
+        assertFalse(Topic.asTopic("finance").match(Topic.asTopic("finance/+")));
+        assertFalse(Topic.asTopic("/finance").match(Topic.asTopic("+")));
+        assertTrue(Topic.asTopic("/").match(Topic.asTopic("+/+")));
+    }
+}
@@ -30,6 +30,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
@@ -165,4 +167,21 @@ public class MapDBPersistentStoreTest {
         IMessagesStore.StoredMessage storedPublish = m_messagesStore.getMessageByGuid(guid);
         assertNotNull("The stored retained message must be present after client's session drop", storedPublish);
     }
+
+    @Test
+    public void testSubscriptionsChangesArePrunedUpToTheSnapshot() {
+        m_sessionsStore.markSubscriptionsChanged("CLIENT_1");
+        m_sessionsStore.markSubscriptionsChanged("CLIENT_2");
+        long snapshotSequence = m_sessionsStore.subscriptionsSequence();
+        m_sessionsStore.markSubscriptionsChanged("CLIENT_2");
+        m_sessionsStore.markSubscriptionsChanged("CLIENT_3");
+
+        //Exercise
+        m_sessionsStore.pruneSubscriptionsChanges(snapshotSequence);
+
+        //Verify
+        assertEquals(new HashSet<>(Arrays.asList("CLIENT_2", "CLIENT_3")),
+                new HashSet<>(m_sessionsStore.clientsChangedSince(0)));
+        assertEquals(4, m_sessionsStore.subscriptionsSequence());
+    }
 }
\ No newline at end of file
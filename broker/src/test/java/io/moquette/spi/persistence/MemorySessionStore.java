@@ -48,6 +48,8 @@ public class MemorySessionStore implements ISessionsStore {
     private Map<String, Map<Integer, MessageGUID>> m_secondPhaseStore = new HashMap<>();
 
     private Map<String, Map<Integer, MessageGUID>> m_messageToGuids;
+    private Map<String, Long> m_subscriptionsChanges = new HashMap<>();
+    private long m_subscriptionsSequence;
     private final IMessagesStore m_messagesStore;
 
     public MemorySessionStore(IMessagesStore messagesStore, Map<String, Map<Integer, MessageGUID>> messageToGuids) {
@@ -166,6 +168,43 @@ public class MemorySessionStore implements ISessionsStore {
         return subscriptions;
     }
 
+    @Override
+    public List<Subscription> getSubscriptions(String clientID) {
+        Set<Subscription> subscriptions = m_persistentSubscriptions.get(clientID);
+        return subscriptions == null ? Collections.<Subscription>emptyList() : new ArrayList<>(subscriptions);
+    }
+
+    @Override
+    public synchronized void markSubscriptionsChanged(String clientID) {
+        m_subscriptionsChanges.put(clientID, ++m_subscriptionsSequence);
+    }
+
+    @Override
+    public synchronized long subscriptionsSequence() {
+        return m_subscriptionsSequence;
+    }
+
+    @Override
+    public synchronized Collection<String> clientsChangedSince(long sequence) {
+        List<String> clientIDs = new ArrayList<>();
+        for (Map.Entry<String, Long> change : m_subscriptionsChanges.entrySet()) {
+            if (change.getValue() > sequence) {
+                clientIDs.add(change.getKey());
+            }
+        }
+        return clientIDs;
+    }
+
+    @Override
+    public synchronized void pruneSubscriptionsChanges(long sequence) {
+        Iterator<Map.Entry<String, Long>> changes = m_subscriptionsChanges.entrySet().iterator();
+        while (changes.hasNext()) {
+            if (changes.next().getValue() <= sequence) {
+                changes.remove();
+            }
+        }
+    }
+
     @Override
     public void inFlightAck(String clientID, int messageID) {
         Map<Integer, MessageGUID> m = this.m_inflightStore.get(clientID);
@@ -2,6 +2,7 @@ package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.ConnAckMessage;
 
@@ -12,14 +13,10 @@ import io.moquette.parser.proto.messages.ConnAckMessage;
 class ConnAckDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
-        in.resetReaderIndex();
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
         ConnAckMessage message = new ConnAckMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         //skip reserved byte
         in.skipBytes(1);
         
@@ -35,15 +35,10 @@ public class ConnectDecoder extends DemuxDecoder {
     static final AttributeKey<Boolean> CONNECT_STATUS = AttributeKey.valueOf("connected");
     
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
-        in.resetReaderIndex();
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
         ConnectMessage message = new ConnectMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
-        int remainingLength = message.getRemainingLength();
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         int start = in.readerIndex();
 
         int protocolNameLen = in.readUnsignedShort();
@@ -55,15 +50,13 @@ public class ConnectDecoder extends DemuxDecoder {
                 //MQTT version 3.1 "MQIsdp"
                 //ProtocolName 8 bytes or 6 bytes
                 if (in.readableBytes() < 10) {
-                    in.resetReaderIndex();
-                    return;
+                    throw new CorruptedFrameException("Received a CONNECT shorter than its variable header");
                 }
                 
                 encProtoName = new byte[6];
                 in.readBytes(encProtoName);
                 protoName = new String(encProtoName, "UTF-8");
                 if (!"MQIsdp".equals(protoName)) {
-                    in.resetReaderIndex();
                     throw new CorruptedFrameException("Invalid protoName: " + protoName);
                 }
                 message.setProtocolName(protoName);
@@ -74,14 +67,12 @@ public class ConnectDecoder extends DemuxDecoder {
                 //MQTT version 3.1.1 "MQTT"
                 //ProtocolName 6 bytes
                 if (in.readableBytes() < 8) {
-                    in.resetReaderIndex();
-                    return;
+                    throw new CorruptedFrameException("Received a CONNECT shorter than its variable header");
                 }
                 encProtoName = new byte[4];
                 in.readBytes(encProtoName);
                 protoName = new String(encProtoName, "UTF-8");
                 if (!"MQTT".equals(protoName)) {
-                    in.resetReaderIndex();
                     throw new CorruptedFrameException("Invalid protoName: " + protoName);
                 }
                 message.setProtocolName(protoName);
@@ -123,7 +114,6 @@ public class ConnectDecoder extends DemuxDecoder {
         boolean willFlag = ((connFlags & 0x04) >> 2) == 1;
         byte willQos = (byte) ((connFlags & 0x18) >> 3);
         if (willQos > 2) {
-            in.resetReaderIndex();
             throw new CorruptedFrameException("Expected will QoS in range 0..2 but found: " + willQos);
         }
         boolean willRetain = ((connFlags & 0x20) >> 5) == 1;
@@ -131,7 +121,6 @@ public class ConnectDecoder extends DemuxDecoder {
         boolean userFlag = ((connFlags & 0x80) >> 7) == 1;
         //a password is true iff user is true.
         if (!userFlag && passwordFlag) {
-            in.resetReaderIndex();
             throw new CorruptedFrameException("Expected password flag to true if the user flag is true but was: " + passwordFlag);
         }
         message.setCleanSession(cleanSession);
@@ -155,8 +144,7 @@ public class ConnectDecoder extends DemuxDecoder {
         //Decode the ClientID
         String clientID = Utils.decodeString(in);
         if (clientID == null) {
-            in.resetReaderIndex();
-            return;
+            throw new CorruptedFrameException("Received a CONNECT with client identifier longer than the message");
         }
         message.setClientID(clientID);
 
@@ -164,8 +152,7 @@ public class ConnectDecoder extends DemuxDecoder {
         if (willFlag) {
             String willTopic = Utils.decodeString(in);
             if (willTopic == null) {
-                in.resetReaderIndex();
-                return;
+                throw new CorruptedFrameException("Received a CONNECT with will topic longer than the message");
             }
             message.setWillTopic(willTopic);
         }
@@ -174,8 +161,7 @@ public class ConnectDecoder extends DemuxDecoder {
         if (willFlag) {
             byte[] willMessage = Utils.readFixedLengthContent(in);
             if (willMessage == null) {
-                in.resetReaderIndex();
-                return;
+                throw new CorruptedFrameException("Received a CONNECT with will message longer than the message");
             }
             message.setWillMessage(willMessage);
         }
@@ -192,8 +178,7 @@ public class ConnectDecoder extends DemuxDecoder {
         if (userFlag) {
             String userName = Utils.decodeString(in);
             if (userName == null) {
-                in.resetReaderIndex();
-                return;
+                throw new CorruptedFrameException("Received a CONNECT with user name longer than the message");
             }
             message.setUsername(userName);
         }
@@ -208,8 +193,7 @@ public class ConnectDecoder extends DemuxDecoder {
         if (passwordFlag) {
             byte[] password = Utils.readFixedLengthContent(in);
             if (password == null) {
-                in.resetReaderIndex();
-                return;
+                throw new CorruptedFrameException("Received a CONNECT with password longer than the message");
             }
             message.setPassword(password);
         }
@@ -28,63 +28,66 @@ public class ConnectEncoder extends DemuxEncoder<ConnectMessage> {
 
     @Override
     protected void encode(ChannelHandlerContext chc, ConnectMessage message, ByteBuf out) {
-        ByteBuf staticHeaderBuff = chc.alloc().buffer(12);
-        ByteBuf buff = chc.alloc().buffer();
-        ByteBuf variableHeaderBuff = chc.alloc().buffer(12);
-        try {
-            staticHeaderBuff.writeBytes(Utils.encodeString("MQIsdp"));
-
-            //version 
-            staticHeaderBuff.writeByte(0x03);
-
-            //connection flags and Strings
-            byte connectionFlags = 0;
-            if (message.isCleanSession()) {
-                connectionFlags |= 0x02;
-            }
-            if (message.isWillFlag()) {
-                connectionFlags |= 0x04;
-            }
-            connectionFlags |= ((message.getWillQos() & 0x03) << 3);
-            if (message.isWillRetain()) {
-                connectionFlags |= 0x020;
-            }
-            if (message.isPasswordFlag()) {
-                connectionFlags |= 0x040;
-            }
-            if (message.isUserFlag()) {
-                connectionFlags |= 0x080;
-            }
-            staticHeaderBuff.writeByte(connectionFlags);
-
-            //Keep alive timer
-            staticHeaderBuff.writeShort(message.getKeepAlive());
+        //connection flags and Strings
+        byte connectionFlags = 0;
+        if (message.isCleanSession()) {
+            connectionFlags |= 0x02;
+        }
+        if (message.isWillFlag()) {
+            connectionFlags |= 0x04;
+        }
+        connectionFlags |= ((message.getWillQos() & 0x03) << 3);
+        if (message.isWillRetain()) {
+            connectionFlags |= 0x020;
+        }
+        if (message.isPasswordFlag()) {
+            connectionFlags |= 0x040;
+        }
+        if (message.isUserFlag()) {
+            connectionFlags |= 0x080;
+        }
 
-            //Variable part
-            if (message.getClientID() != null) {
-                variableHeaderBuff.writeBytes(Utils.encodeString(message.getClientID()));
-                if (message.isWillFlag()) {
-                    variableHeaderBuff.writeBytes(Utils.encodeString(message.getWillTopic()));
-                    variableHeaderBuff.writeBytes(Utils.encodeFixedLengthContent(message.getWillMessage()));
-                }
-                if (message.isUserFlag() && message.getUsername() != null) {
-                    variableHeaderBuff.writeBytes(Utils.encodeString(message.getUsername()));
-                    if (message.isPasswordFlag() && message.getPassword() != null) {
-                        variableHeaderBuff.writeBytes(Utils.encodeFixedLengthContent(message.getPassword()));
-                    }
-                }
-            }
+        //Variable part, measured with the same conditions used to write it
+        boolean hasClientID = message.getClientID() != null;
+        boolean hasWill = hasClientID && message.isWillFlag();
+        boolean hasUsername = hasClientID && message.isUserFlag() && message.getUsername() != null;
+        boolean hasPassword = hasUsername && message.isPasswordFlag() && message.getPassword() != null;
+        int variableHeaderSize = 0;
+        if (hasClientID) {
+            variableHeaderSize += Utils.encodedStringLength(message.getClientID());
+        }
+        if (hasWill) {
+            variableHeaderSize += Utils.encodedStringLength(message.getWillTopic());
+            variableHeaderSize += 2 + message.getWillMessage().length;
+        }
+        if (hasUsername) {
+            variableHeaderSize += Utils.encodedStringLength(message.getUsername());
+        }
+        if (hasPassword) {
+            variableHeaderSize += 2 + message.getPassword().length;
+        }
 
-            int variableHeaderSize = variableHeaderBuff.readableBytes();
-            buff.writeByte(AbstractMessage.CONNECT << 4);
-            buff.writeBytes(Utils.encodeRemainingLength(12 + variableHeaderSize));
-            buff.writeBytes(staticHeaderBuff).writeBytes(variableHeaderBuff);
+        //static header: protocol name (2 + 6), version, connection flags and keep alive
+        Utils.writeFixedHeader(out, AbstractMessage.CONNECT << 4, 12 + variableHeaderSize);
+        Utils.writeString(out, "MQIsdp");
+        //version 
+        out.writeByte(0x03);
+        out.writeByte(connectionFlags);
+        //Keep alive timer
+        out.writeShort(message.getKeepAlive());
 
-            out.writeBytes(buff);
-        } finally {
-            staticHeaderBuff.release();
-            buff.release();
-            variableHeaderBuff.release();
+        if (hasClientID) {
+            Utils.writeString(out, message.getClientID());
+        }
+        if (hasWill) {
+            Utils.writeString(out, message.getWillTopic());
+            Utils.writeFixedLengthContent(out, message.getWillMessage());
+        }
+        if (hasUsername) {
+            Utils.writeString(out, message.getUsername());
+        }
+        if (hasPassword) {
+            Utils.writeFixedLengthContent(out, message.getPassword());
         }
     }
     
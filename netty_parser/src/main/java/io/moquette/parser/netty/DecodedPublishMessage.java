@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.moquette.parser.proto.messages.PublishMessage;
+
+/**
+ * A PUBLISH read by {@link MQTTDecoder}, whose payload is a slice of the inbound buffer instead of a copy.
+ *
+ * The message owns a reference to the slice: who receives it from the pipeline releases it once processed,
+ * and who keeps the payload beyond that retains the buffer or copies it.
+ *
+ * @author andrea
+ */
+public class DecodedPublishMessage extends PublishMessage {
+
+    private ByteBuf m_payloadBuffer;
+    private ByteBuf m_encodedTopicName;
+
+    void setPayloadBuffer(ByteBuf payloadBuffer) {
+        m_payloadBuffer = payloadBuffer;
+        setPayload(payloadBuffer.nioBuffer());
+    }
+
+    void setEncodedTopicName(ByteBuf encodedTopicName) {
+        m_encodedTopicName = encodedTopicName;
+    }
+
+    /**
+     * @return the topic name as read from the frame, length prefix included, to forward it without encoding
+     * it again. A slice of the same inbound buffer of the payload, valid till the message is released.
+     * */
+    public ByteBuf encodedTopicName() {
+        return m_encodedTopicName;
+    }
+
+    /**
+     * @return the payload, valid till the message is released. The {@link #getPayload()} view shares its content.
+     * */
+    public ByteBuf payloadBuffer() {
+        return m_payloadBuffer;
+    }
+
+    public DecodedPublishMessage retain() {
+        m_payloadBuffer.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return m_payloadBuffer.release();
+    }
+}
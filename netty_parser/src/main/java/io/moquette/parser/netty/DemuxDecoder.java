@@ -18,6 +18,7 @@ package io.moquette.parser.netty;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.AbstractMessage;
 
@@ -26,31 +27,72 @@ import io.moquette.parser.proto.messages.AbstractMessage;
  * @author andrea
  */
 abstract class DemuxDecoder {
-    abstract void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception;
+
+    /**
+     * Decode a whole frame starting from the marked reader index, nothing is read if the frame isn't
+     * complete. Used when the fixed header isn't already parsed by {@link MQTTDecoder}.
+     */
+    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
+        in.resetReaderIndex();
+        if (in.readableBytes() < 2) {
+            return;
+        }
+        byte firstByte = in.readByte();
+        int remainingLength = Utils.decodeRemainingLenght(in);
+        if (remainingLength == -1 || in.readableBytes() < remainingLength) {
+            in.resetReaderIndex();
+            return;
+        }
+        readFrame(ctx, firstByte, remainingLength, in, out);
+    }
+
+    /**
+     * Decode the frame whose fixed header is already read, its remainingLength bytes are read from the buffer
+     * even if the frame is rejected, so a malformed frame never reads into the next one.
+     *
+     * @throws CorruptedFrameException if the content doesn't fit the remaining length.
+     */
+    final void readFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out)
+            throws UnsupportedEncodingException {
+        ByteBuf frame = in.readSlice(remainingLength);
+        try {
+            decodeFrame(ctx, firstByte, remainingLength, frame, out);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new CorruptedFrameException("Received a frame shorter than its content", ex);
+        }
+        if (frame.isReadable()) {
+            throw new CorruptedFrameException("Received a frame with " + frame.readableBytes()
+                    + " bytes past its content");
+        }
+    }
+
+    /**
+     * Decode the variable header and the payload of a frame. The buffer is a slice with only the
+     * remainingLength bytes of the frame, the ones not read by the decoder make the frame corrupted.
+     *
+     * @throws CorruptedFrameException if the content doesn't fit the remaining length.
+     */
+    abstract void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in,
+                              List<Object> out) throws UnsupportedEncodingException;
     
     /**
-     * Decodes the first 2 bytes of the MQTT packet.
+     * Decodes the fields of the fixed header of the MQTT packet.
      * The first byte contain the packet operation code and the flags,
      * the second byte and more contains the overall packet length.
      */
-    protected boolean decodeCommonHeader(AbstractMessage message, ByteBuf in) {
-        return genericDecodeCommonHeader(message, null, in);
+    protected void decodeCommonHeader(AbstractMessage message, byte firstByte, int remainingLength) {
+        genericDecodeCommonHeader(message, null, firstByte, remainingLength);
     }
     
     /**
      * Do the same as the @see#decodeCommonHeader but having a strong validation on the flags values
      */
-    protected boolean decodeCommonHeader(AbstractMessage message, int expectedFlags, ByteBuf in) {
-        return genericDecodeCommonHeader(message, expectedFlags, in);
+    protected void decodeCommonHeader(AbstractMessage message, int expectedFlags, byte firstByte, int remainingLength) {
+        genericDecodeCommonHeader(message, expectedFlags, firstByte, remainingLength);
     }
     
     
-    private boolean genericDecodeCommonHeader(AbstractMessage message, Integer expectedFlagsOpt, ByteBuf in) {
-        //Common decoding part
-        if (in.readableBytes() < 2) {
-            return false;
-        }
-        byte h1 = in.readByte();
+    private void genericDecodeCommonHeader(AbstractMessage message, Integer expectedFlagsOpt, byte h1, int remainingLength) {
         byte messageType = (byte) ((h1 & 0x00F0) >> 4);
         
         byte flags = (byte) (h1 & 0x0F);
@@ -66,10 +108,6 @@ abstract class DemuxDecoder {
         boolean dupFlag = ((byte) ((h1 & 0x0008) >> 3) == 1);
         byte qosLevel = (byte) ((h1 & 0x0006) >> 1);
         boolean retainFlag = ((byte) (h1 & 0x0001) == 1);
-        int remainingLength = Utils.decodeRemainingLenght(in);
-        if (remainingLength == -1) {
-            return false;
-        }
 
         message.setMessageType(messageType);
         message.setDupFlag(dupFlag);
@@ -80,6 +118,5 @@ abstract class DemuxDecoder {
         }
         message.setRetainFlag(retainFlag);
         message.setRemainingLength(remainingLength);
-        return true;
     }
 }
@@ -17,6 +17,7 @@ package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.DisconnectMessage;
 import org.slf4j.Logger;
@@ -31,14 +32,10 @@ class DisconnectDecoder extends DemuxDecoder {
     private static Logger LOG = LoggerFactory.getLogger(DisconnectDecoder.class);
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        in.resetReaderIndex();
         DisconnectMessage message = new DisconnectMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         LOG.debug("Decoding disconnect");
         out.add(message);
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.moquette.parser.proto.messages.AbstractMessage;
+
+/**
+ * The encoding of a PUBLISH shared by all the subscribers it's forwarded to. The fixed header and the
+ * topic are encoded once for each QoS and the payload buffer is retained without copying it, each subscriber
+ * gets an {@link EncodedPublishMessage} that adds only its own packet identifier.
+ *
+ * A publish forwarded as read from the inbound frame shares also the encoded topic, only the fixed header
+ * is written again, with the flags of the subscriber's QoS.
+ *
+ * The headers are unpooled, so a message dropped without being written or released is reclaimed
+ * by the garbage collector, but it keeps a pooled payload out of its pool.
+ *
+ * @author andrea
+ */
+public class EncodedPublish {
+
+    private final String m_topicName;
+    private final int m_encodedTopicLength;
+    private final ByteBuf m_encodedPayload;
+    //the topic as read from the inbound frame, null if it's encoded from the name
+    private final ByteBuf m_encodedTopicName;
+    //fixed header and topic, indexed by QoS, encoded by the first message with that QoS
+    private final ByteBuf[] m_headers = new ByteBuf[AbstractMessage.QOSType.EXACTLY_ONCE.byteValue() + 1];
+    private final MessagesPool m_messagesPool;
+
+    /**
+     * @param payload retained till the publish and all its messages are released, its indexes aren't changed.
+     * */
+    public EncodedPublish(String topicName, ByteBuf payload) {
+        this(topicName, payload, MessagesPool.UNPOOLED);
+    }
+
+    /**
+     * @param payload retained till the publish and all its messages are released, its indexes aren't changed.
+     * @param messagesPool where the messages to the subscribers are taken from.
+     * */
+    public EncodedPublish(String topicName, ByteBuf payload, MessagesPool messagesPool) {
+        this(topicName, null, payload, messagesPool);
+    }
+
+    /**
+     * @param encodedTopicName the topic with its length prefix, as found in the frame it's forwarded from, or
+     *                         null to encode the topic name. Retained like the payload.
+     * @param payload retained till the publish and all its messages are released, its indexes aren't changed.
+     * @param messagesPool where the messages to the subscribers are taken from.
+     * */
+    public EncodedPublish(String topicName, ByteBuf encodedTopicName, ByteBuf payload, MessagesPool messagesPool) {
+        if (topicName == null || topicName.isEmpty()) {
+            throw new IllegalArgumentException("Found a message with empty or null topic name");
+        }
+        m_topicName = topicName;
+        if (encodedTopicName != null) {
+            m_encodedTopicName = encodedTopicName.duplicate().retain();
+            m_encodedTopicLength = m_encodedTopicName.readableBytes();
+        } else {
+            m_encodedTopicName = null;
+            m_encodedTopicLength = Utils.encodedStringLength(topicName);
+        }
+        m_encodedPayload = payload.duplicate().retain();
+        m_messagesPool = messagesPool;
+    }
+
+    /**
+     * Not thread safe, the messages of a publish are created by the thread that forwards it.
+     *
+     * @param messageID the packet identifier, null for QoS 0.
+     * @return the message to write to a subscriber, it holds a reference to the shared buffers till it's
+     * written or released.
+     * */
+    public EncodedPublishMessage messageFor(AbstractMessage.QOSType qos, Integer messageID) {
+        if (qos == AbstractMessage.QOSType.RESERVED) {
+            throw new IllegalArgumentException("Found a message with RESERVED Qos");
+        }
+        if (qos != AbstractMessage.QOSType.MOST_ONE && messageID == null) {
+            throw new IllegalArgumentException("Found a message with QOS 1 or 2 and not MessageID setted");
+        }
+        EncodedPublishMessage message = m_messagesPool.encodedPublish();
+        message.init(m_topicName, qos, messageID, header(qos).retain(), m_encodedPayload.retain());
+        return message;
+    }
+
+    private ByteBuf header(AbstractMessage.QOSType qos) {
+        ByteBuf header = m_headers[qos.byteValue()];
+        if (header != null) {
+            return header;
+        }
+        int remainingLength = m_encodedTopicLength + m_encodedPayload.readableBytes();
+        if (qos != AbstractMessage.QOSType.MOST_ONE) {
+            remainingLength += 2;
+        }
+        //not retained and not duplicated, the flags carry only the QoS
+        byte flags = (byte) ((qos.byteValue() & 0x03) << 1);
+        if (m_encodedTopicName != null) {
+            ByteBuf fixedHeader = Unpooled.buffer(1 + Utils.numBytesToEncode(remainingLength));
+            fixedHeader.writeByte(AbstractMessage.PUBLISH << 4 | flags);
+            Utils.writeRemainingLength(fixedHeader, remainingLength);
+            //the forwarded topic isn't copied, the header holds its own reference to it
+            header = Unpooled.wrappedBuffer(fixedHeader, m_encodedTopicName.duplicate().retain());
+        } else {
+            header = Unpooled.buffer(1 + Utils.numBytesToEncode(remainingLength) + m_encodedTopicLength);
+            header.writeByte(AbstractMessage.PUBLISH << 4 | flags);
+            Utils.writeRemainingLength(header, remainingLength);
+            Utils.writeString(header, m_topicName);
+        }
+        m_headers[qos.byteValue()] = header;
+        return header;
+    }
+
+    /**
+     * Drop the reference held by the publish, the messages not yet written keep the buffers alive.
+     * */
+    public void release() {
+        m_encodedPayload.release();
+        if (m_encodedTopicName != null) {
+            m_encodedTopicName.release();
+        }
+        for (ByteBuf header : m_headers) {
+            if (header != null) {
+                header.release();
+            }
+        }
+    }
+}
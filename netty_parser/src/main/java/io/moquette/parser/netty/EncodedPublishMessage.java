@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.parser.proto.messages.PublishMessage;
+
+/**
+ * A PUBLISH to a single subscriber whose header, topic and payload are shared with the other subscribers,
+ * see {@link EncodedPublish}. It's written by {@link MQTTEncoder} as a composite of the shared buffers and
+ * of its packet identifier.
+ *
+ * @author andrea
+ */
+public class EncodedPublishMessage extends PublishMessage {
+
+    private ByteBuf m_header;
+    private ByteBuf m_payloadBuffer;
+
+    EncodedPublishMessage() {
+    }
+
+    /**
+     * Set the fields of a new or recycled message, see {@link MessagesPool}.
+     * */
+    void init(String topicName, AbstractMessage.QOSType qos, Integer messageID, ByteBuf header,
+              ByteBuf payloadBuffer) {
+        setTopicName(topicName);
+        //a view valid till the message is written or released
+        setPayload(payloadBuffer.nioBuffer());
+        setQos(qos);
+        setRetainFlag(false);
+        setMessageID(messageID);
+        m_header = header;
+        m_payloadBuffer = payloadBuffer;
+    }
+
+    /**
+     * Drop the references of a recycled message.
+     * */
+    void clear() {
+        setTopicName(null);
+        setPayload(null);
+        setMessageID(null);
+    }
+
+    /**
+     * Build the encoded packet, that takes over the references to the shared buffers, so it can be called
+     * only once.
+     * */
+    ByteBuf encode() {
+        if (m_header == null) {
+            throw new IllegalStateException("The message was already encoded or released");
+        }
+        //the duplicates have their own indexes but share the reference count retained for this message
+        ByteBuf header = m_header.duplicate();
+        ByteBuf payload = m_payloadBuffer.duplicate();
+        m_header = null;
+        m_payloadBuffer = null;
+        if (getQos() == AbstractMessage.QOSType.MOST_ONE) {
+            return Unpooled.wrappedBuffer(header, payload);
+        }
+        ByteBuf messageID = Unpooled.buffer(2).writeShort(getMessageID());
+        return Unpooled.wrappedBuffer(header, messageID, payload);
+    }
+
+    /**
+     * Drop the references to the shared buffers of a message that won't be written.
+     * */
+    public void release() {
+        if (m_header != null) {
+            m_header.release();
+            m_payloadBuffer.release();
+            m_header = null;
+            m_payloadBuffer = null;
+        }
+    }
+}
@@ -20,12 +20,12 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.util.AttributeKey;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import io.moquette.parser.proto.messages.AbstractMessage;
 
 /**
+ * Parses the fixed header of each frame once and dispatches the frame to the decoder of its message type
+ * when all its bytes are received. The parsed header is kept across the partial reads of the frame.
  *
  * @author andrea
  */
@@ -33,41 +33,93 @@ public class MQTTDecoder extends ByteToMessageDecoder {
     
     //3 = 3.1, 4 = 3.1.1
     static final AttributeKey<Integer> PROTOCOL_VERSION = AttributeKey.valueOf("version");
+
+    //the remaining length is encoded in at most 4 bytes
+    private static final int MAX_REMAINING_LENGTH_BYTES = 4;
     
-    private final Map<Byte, DemuxDecoder> m_decoderMap = new HashMap<>();
+    //indexed by message type
+    private final DemuxDecoder[] m_decoders = new DemuxDecoder[16];
+
+    //fixed header of the frame waiting for its bytes, -1 length when no header is parsed
+    private DemuxDecoder m_frameDecoder;
+    private byte m_frameFirstByte;
+    private int m_frameRemainingLength = -1;
     
     public MQTTDecoder() {
-       m_decoderMap.put(AbstractMessage.CONNECT, new ConnectDecoder());
-       m_decoderMap.put(AbstractMessage.CONNACK, new ConnAckDecoder());
-       m_decoderMap.put(AbstractMessage.PUBLISH, new PublishDecoder());
-       m_decoderMap.put(AbstractMessage.PUBACK, new PubAckDecoder());
-       m_decoderMap.put(AbstractMessage.SUBSCRIBE, new SubscribeDecoder());
-       m_decoderMap.put(AbstractMessage.SUBACK, new SubAckDecoder());
-       m_decoderMap.put(AbstractMessage.UNSUBSCRIBE, new UnsubscribeDecoder());
-       m_decoderMap.put(AbstractMessage.DISCONNECT, new DisconnectDecoder());
-       m_decoderMap.put(AbstractMessage.PINGREQ, new PingReqDecoder());
-       m_decoderMap.put(AbstractMessage.PINGRESP, new PingRespDecoder());
-       m_decoderMap.put(AbstractMessage.UNSUBACK, new UnsubAckDecoder());
-       m_decoderMap.put(AbstractMessage.PUBCOMP, new PubCompDecoder());
-       m_decoderMap.put(AbstractMessage.PUBREC, new PubRecDecoder());
-       m_decoderMap.put(AbstractMessage.PUBREL, new PubRelDecoder());
+        this(MessagesPool.UNPOOLED);
+    }
+
+    /**
+     * @param messagesPool where the decoded acknowledgments are taken from, they have to be recycled
+     *                     after their processing.
+     * */
+    public MQTTDecoder(MessagesPool messagesPool) {
+       m_decoders[AbstractMessage.CONNECT] = new ConnectDecoder();
+       m_decoders[AbstractMessage.CONNACK] = new ConnAckDecoder();
+       m_decoders[AbstractMessage.PUBLISH] = new PublishDecoder();
+       m_decoders[AbstractMessage.PUBACK] = new PubAckDecoder(messagesPool);
+       m_decoders[AbstractMessage.SUBSCRIBE] = new SubscribeDecoder();
+       m_decoders[AbstractMessage.SUBACK] = new SubAckDecoder();
+       m_decoders[AbstractMessage.UNSUBSCRIBE] = new UnsubscribeDecoder();
+       m_decoders[AbstractMessage.DISCONNECT] = new DisconnectDecoder();
+       m_decoders[AbstractMessage.PINGREQ] = new PingReqDecoder();
+       m_decoders[AbstractMessage.PINGRESP] = new PingRespDecoder();
+       m_decoders[AbstractMessage.UNSUBACK] = new UnsubAckDecoder();
+       m_decoders[AbstractMessage.PUBCOMP] = new PubCompDecoder(messagesPool);
+       m_decoders[AbstractMessage.PUBREC] = new PubRecDecoder(messagesPool);
+       m_decoders[AbstractMessage.PUBREL] = new PubRelDecoder(messagesPool);
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        in.markReaderIndex();
-        if (!Utils.checkHeaderAvailability(in)) {
-            in.resetReaderIndex();
+        if (m_frameRemainingLength == -1 && !readFixedHeader(in)) {
+            return;
+        }
+        if (in.readableBytes() < m_frameRemainingLength) {
             return;
         }
-        in.resetReaderIndex();
-        
-        byte messageType = Utils.readMessageType(in);
-        
-        DemuxDecoder decoder = m_decoderMap.get(messageType);
+        int remainingLength = m_frameRemainingLength;
+        m_frameRemainingLength = -1;
+        m_frameDecoder.readFrame(ctx, m_frameFirstByte, remainingLength, in, out);
+    }
+
+    /**
+     * Read the fixed header only when it's complete, nothing is read otherwise.
+     *
+     * @return true if the header is read.
+     */
+    private boolean readFixedHeader(ByteBuf in) {
+        if (in.readableBytes() < 2) {
+            return false;
+        }
+        int start = in.readerIndex();
+        byte firstByte = in.getByte(start);
+        int remainingLength = 0;
+        int multiplier = 1;
+        int lengthBytes = 0;
+        byte digit;
+        do {
+            if (lengthBytes == MAX_REMAINING_LENGTH_BYTES) {
+                throw new CorruptedFrameException("Remaining length longer than " + MAX_REMAINING_LENGTH_BYTES + " bytes");
+            }
+            if (in.readableBytes() < 2 + lengthBytes) {
+                return false;
+            }
+            digit = in.getByte(start + 1 + lengthBytes);
+            lengthBytes++;
+            remainingLength += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+
+        byte messageType = (byte) ((firstByte & 0x00F0) >> 4);
+        DemuxDecoder decoder = m_decoders[messageType];
         if (decoder == null) {
             throw new CorruptedFrameException("Can't find any suitable decoder for message type: " + messageType);
         }
-        decoder.decode(ctx, in, out);
+        in.skipBytes(1 + lengthBytes);
+        m_frameDecoder = decoder;
+        m_frameFirstByte = firstByte;
+        m_frameRemainingLength = remainingLength;
+        return true;
     }
 }
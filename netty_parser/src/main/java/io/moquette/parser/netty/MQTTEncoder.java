@@ -16,18 +16,25 @@
 package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import java.util.HashMap;
 import java.util.Map;
 import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.parser.proto.messages.PingRespMessage;
 
 /**
  *
  * @author andrea
  */
 public class MQTTEncoder extends MessageToByteEncoder<AbstractMessage> {
+
+    //the PINGRESP has no variable part, all the channels write the same bytes
+    private static final ByteBuf PINGRESP_ENCODED = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(2).writeByte(AbstractMessage.PINGRESP << 4).writeByte(0));
     
     private Map<Byte, DemuxEncoder> m_encoderMap = new HashMap<Byte, DemuxEncoder>();
     
@@ -48,6 +55,22 @@ public class MQTTEncoder extends MessageToByteEncoder<AbstractMessage> {
        m_encoderMap.put(AbstractMessage.PUBREL, new PubRelEncoder());
     }
     
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof EncodedPublishMessage) {
+            //already encoded, the shared buffers are written without copying them
+            ByteBuf encoded = ((EncodedPublishMessage) msg).encode();
+            MessagesPool.recycle(msg);
+            ctx.write(encoded, promise);
+            return;
+        }
+        if (msg instanceof PingRespMessage) {
+            ctx.write(PINGRESP_ENCODED.duplicate(), promise);
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext chc, AbstractMessage msg, ByteBuf bb) throws Exception {
         DemuxEncoder encoder = m_encoderMap.get(msg.getMessageType());
@@ -55,5 +78,6 @@ public class MQTTEncoder extends MessageToByteEncoder<AbstractMessage> {
             throw new CorruptedFrameException("Can't find any suitable decoder for message type: " + msg.getMessageType());
         }
         encoder.encode(chc, msg, bb);
+        MessagesPool.recycle(msg);
     }
 }
@@ -18,6 +18,7 @@ package io.moquette.parser.netty;
 import io.moquette.parser.proto.messages.MessageIDMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 
 /**
@@ -29,14 +30,10 @@ abstract class MessageIDDecoder extends DemuxDecoder {
     protected abstract MessageIDMessage createMessage();
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
-        in.resetReaderIndex();
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
         MessageIDMessage message = createMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         
         //read  messageIDs
         message.setMessageID(in.readUnsignedShort());
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.moquette.parser.proto.messages.PingRespMessage;
+import io.moquette.parser.proto.messages.PubAckMessage;
+import io.moquette.parser.proto.messages.PubCompMessage;
+import io.moquette.parser.proto.messages.PubRecMessage;
+import io.moquette.parser.proto.messages.PubRelMessage;
+import io.netty.util.Recycler;
+
+/**
+ * Creates the short lived messages of the publish flows: the acknowledgments and the encoded PUBLISH
+ * to the subscribers. When pooled they are taken from Netty {@link Recycler}s and put back by
+ * {@link #recycle(Object)}, that {@link MQTTEncoder} calls after the encoding and the inbound handler after
+ * the processing, so they must not be referenced after those points.
+ *
+ * @author andrea
+ */
+public final class MessagesPool {
+
+    public static final MessagesPool UNPOOLED = new MessagesPool(false);
+    public static final MessagesPool POOLED = new MessagesPool(true);
+
+    /**
+     * The PINGRESP shared by all the channels, written by {@link MQTTEncoder} as a pre-encoded buffer.
+     * */
+    public static final PingRespMessage PINGRESP = new PingRespMessage();
+
+    private final boolean m_pooled;
+
+    private MessagesPool(boolean pooled) {
+        m_pooled = pooled;
+    }
+
+    public static MessagesPool of(boolean pooled) {
+        return pooled ? POOLED : UNPOOLED;
+    }
+
+    public PubAckMessage pubAck() {
+        return m_pooled ? PooledPubAck.RECYCLER.get() : new PubAckMessage();
+    }
+
+    public PubRecMessage pubRec() {
+        return m_pooled ? PooledPubRec.RECYCLER.get() : new PubRecMessage();
+    }
+
+    public PubRelMessage pubRel() {
+        return m_pooled ? PooledPubRel.RECYCLER.get() : new PubRelMessage();
+    }
+
+    public PubCompMessage pubComp() {
+        return m_pooled ? PooledPubComp.RECYCLER.get() : new PubCompMessage();
+    }
+
+    EncodedPublishMessage encodedPublish() {
+        return m_pooled ? PooledEncodedPublish.RECYCLER.get() : new EncodedPublishMessage();
+    }
+
+    /**
+     * Put back a pooled message, the others are left to the garbage collector.
+     * */
+    public static void recycle(Object msg) {
+        if (msg instanceof Recyclable) {
+            ((Recyclable) msg).recycle();
+        }
+    }
+
+    private interface Recyclable {
+        void recycle();
+    }
+
+    private static final class PooledPubAck extends PubAckMessage implements Recyclable {
+        static final Recycler<PooledPubAck> RECYCLER = new Recycler<PooledPubAck>() {
+            @Override
+            protected PooledPubAck newObject(Handle handle) {
+                return new PooledPubAck(handle);
+            }
+        };
+
+        private final Recycler.Handle m_handle;
+
+        private PooledPubAck(Recycler.Handle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public void recycle() {
+            setMessageID(null);
+            RECYCLER.recycle(this, m_handle);
+        }
+    }
+
+    private static final class PooledPubRec extends PubRecMessage implements Recyclable {
+        static final Recycler<PooledPubRec> RECYCLER = new Recycler<PooledPubRec>() {
+            @Override
+            protected PooledPubRec newObject(Handle handle) {
+                return new PooledPubRec(handle);
+            }
+        };
+
+        private final Recycler.Handle m_handle;
+
+        private PooledPubRec(Recycler.Handle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public void recycle() {
+            setMessageID(null);
+            RECYCLER.recycle(this, m_handle);
+        }
+    }
+
+    private static final class PooledPubRel extends PubRelMessage implements Recyclable {
+        static final Recycler<PooledPubRel> RECYCLER = new Recycler<PooledPubRel>() {
+            @Override
+            protected PooledPubRel newObject(Handle handle) {
+                return new PooledPubRel(handle);
+            }
+        };
+
+        private final Recycler.Handle m_handle;
+
+        private PooledPubRel(Recycler.Handle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public void recycle() {
+            setMessageID(null);
+            RECYCLER.recycle(this, m_handle);
+        }
+    }
+
+    private static final class PooledPubComp extends PubCompMessage implements Recyclable {
+        static final Recycler<PooledPubComp> RECYCLER = new Recycler<PooledPubComp>() {
+            @Override
+            protected PooledPubComp newObject(Handle handle) {
+                return new PooledPubComp(handle);
+            }
+        };
+
+        private final Recycler.Handle m_handle;
+
+        private PooledPubComp(Recycler.Handle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public void recycle() {
+            setMessageID(null);
+            RECYCLER.recycle(this, m_handle);
+        }
+    }
+
+    private static final class PooledEncodedPublish extends EncodedPublishMessage implements Recyclable {
+        static final Recycler<PooledEncodedPublish> RECYCLER = new Recycler<PooledEncodedPublish>() {
+            @Override
+            protected PooledEncodedPublish newObject(Handle handle) {
+                return new PooledEncodedPublish(handle);
+            }
+        };
+
+        private final Recycler.Handle m_handle;
+
+        private PooledEncodedPublish(Recycler.Handle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public void recycle() {
+            //drops the shared buffers too, if not already taken by the encoding
+            release();
+            clear();
+            RECYCLER.recycle(this, m_handle);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package io.moquette.parser.netty;
 import io.moquette.parser.proto.messages.PingReqMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 
 /**
@@ -27,14 +28,10 @@ import java.util.List;
 class PingReqDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        in.resetReaderIndex();
         PingReqMessage message = new PingReqMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         out.add(message);
     }
 }
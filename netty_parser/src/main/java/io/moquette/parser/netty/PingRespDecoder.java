@@ -17,6 +17,7 @@ package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.PingRespMessage;
 
@@ -27,14 +28,10 @@ import io.moquette.parser.proto.messages.PingRespMessage;
 class PingRespDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        in.resetReaderIndex();
         PingRespMessage message = new PingRespMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         out.add(message);
     }
 }
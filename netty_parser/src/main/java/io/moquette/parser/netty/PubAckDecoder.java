@@ -16,7 +16,6 @@
 package io.moquette.parser.netty;
 
 import io.moquette.parser.proto.messages.MessageIDMessage;
-import io.moquette.parser.proto.messages.PubAckMessage;
 
 /**
  *
@@ -24,9 +23,19 @@ import io.moquette.parser.proto.messages.PubAckMessage;
  */
 class PubAckDecoder extends MessageIDDecoder {
 
+    private final MessagesPool m_messagesPool;
+
+    PubAckDecoder() {
+        this(MessagesPool.UNPOOLED);
+    }
+
+    PubAckDecoder(MessagesPool messagesPool) {
+        m_messagesPool = messagesPool;
+    }
+
     @Override
     protected MessageIDMessage createMessage() {
-        return new PubAckMessage();
+        return m_messagesPool.pubAck();
     }
     
 }
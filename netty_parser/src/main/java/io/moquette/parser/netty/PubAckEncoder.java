@@ -28,15 +28,8 @@ class PubAckEncoder extends DemuxEncoder<PubAckMessage> {
 
     @Override
     protected void encode(ChannelHandlerContext chc, PubAckMessage msg, ByteBuf out) {
-        ByteBuf buff = chc.alloc().buffer(4);
-        try {
-            buff.writeByte(AbstractMessage.PUBACK << 4);
-            buff.writeBytes(Utils.encodeRemainingLength(2));
-            buff.writeShort(msg.getMessageID());
-            out.writeBytes(buff);
-        } finally {
-            buff.release();
-        }
+        Utils.writeFixedHeader(out, AbstractMessage.PUBACK << 4, 2);
+        out.writeShort(msg.getMessageID());
     }
     
 }
@@ -16,7 +16,6 @@
 package io.moquette.parser.netty;
 
 import io.moquette.parser.proto.messages.MessageIDMessage;
-import io.moquette.parser.proto.messages.PubCompMessage;
 
 
 /**
@@ -25,8 +24,18 @@ import io.moquette.parser.proto.messages.PubCompMessage;
  */
 class PubCompDecoder extends MessageIDDecoder {
 
+    private final MessagesPool m_messagesPool;
+
+    PubCompDecoder() {
+        this(MessagesPool.UNPOOLED);
+    }
+
+    PubCompDecoder(MessagesPool messagesPool) {
+        m_messagesPool = messagesPool;
+    }
+
     @Override
     protected MessageIDMessage createMessage() {
-        return new PubCompMessage();
+        return m_messagesPool.pubComp();
     }
 }
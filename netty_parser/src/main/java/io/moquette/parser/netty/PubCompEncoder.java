@@ -28,8 +28,7 @@ class PubCompEncoder extends DemuxEncoder<PubCompMessage> {
 
     @Override
     protected void encode(ChannelHandlerContext chc, PubCompMessage msg, ByteBuf out) {
-        out.writeByte(AbstractMessage.PUBCOMP << 4);
-        out.writeBytes(Utils.encodeRemainingLength(2));
+        Utils.writeFixedHeader(out, AbstractMessage.PUBCOMP << 4, 2);
         out.writeShort(msg.getMessageID());
     }
 }
@@ -16,7 +16,6 @@
 package io.moquette.parser.netty;
 
 import io.moquette.parser.proto.messages.MessageIDMessage;
-import io.moquette.parser.proto.messages.PubRecMessage;
 
 /**
  *
@@ -24,8 +23,18 @@ import io.moquette.parser.proto.messages.PubRecMessage;
  */
 class PubRecDecoder extends MessageIDDecoder {
 
+    private final MessagesPool m_messagesPool;
+
+    PubRecDecoder() {
+        this(MessagesPool.UNPOOLED);
+    }
+
+    PubRecDecoder(MessagesPool messagesPool) {
+        m_messagesPool = messagesPool;
+    }
+
     @Override
     protected MessageIDMessage createMessage() {
-        return new PubRecMessage();
+        return m_messagesPool.pubRec();
     }
 }
@@ -28,8 +28,7 @@ class PubRecEncoder extends DemuxEncoder<PubRecMessage> {
 
     @Override
     protected void encode(ChannelHandlerContext chc, PubRecMessage msg, ByteBuf out) {
-        out.writeByte(AbstractMessage.PUBREC << 4);
-        out.writeBytes(Utils.encodeRemainingLength(2));
+        Utils.writeFixedHeader(out, AbstractMessage.PUBREC << 4, 2);
         out.writeShort(msg.getMessageID());
     }
 }
\ No newline at end of file
@@ -16,7 +16,6 @@
 package io.moquette.parser.netty;
 
 import io.moquette.parser.proto.messages.MessageIDMessage;
-import io.moquette.parser.proto.messages.PubRelMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
 import java.io.UnsupportedEncodingException;
@@ -27,16 +26,22 @@ import java.util.List;
  * @author andrea
  */
 class PubRelDecoder extends DemuxDecoder {
+
+    private final MessagesPool m_messagesPool;
+
+    PubRelDecoder() {
+        this(MessagesPool.UNPOOLED);
+    }
+
+    PubRelDecoder(MessagesPool messagesPool) {
+        m_messagesPool = messagesPool;
+    }
     
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
-        in.resetReaderIndex();
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        MessageIDMessage message = new PubRelMessage();
-        if (!decodeCommonHeader(message, 0x02, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        MessageIDMessage message = m_messagesPool.pubRel();
+        decodeCommonHeader(message, 0x02, firstByte, remainingLength);
         
         //read  messageIDs
         message.setMessageID(in.readUnsignedShort());
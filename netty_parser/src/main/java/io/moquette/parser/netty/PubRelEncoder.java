@@ -28,8 +28,7 @@ class PubRelEncoder extends DemuxEncoder<PubRelMessage> {
 
     @Override
     protected void encode(ChannelHandlerContext chc, PubRelMessage msg, ByteBuf out) {
-        out.writeByte(AbstractMessage.PUBREL << 4 | 0x02);
-        out.writeBytes(Utils.encodeRemainingLength(2));
+        Utils.writeFixedHeader(out, AbstractMessage.PUBREL << 4 | 0x02, 2);
         out.writeShort(msg.getMessageID());
     }
 }
\ No newline at end of file
@@ -16,12 +16,11 @@
 package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.AbstractMessage;
-import io.moquette.parser.proto.messages.PublishMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,18 +33,13 @@ class PublishDecoder extends DemuxDecoder {
     private static Logger LOG = LoggerFactory.getLogger(PublishDecoder.class);
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         LOG.debug("decode invoked with buffer {}", in);
-        in.resetReaderIndex();
         int startPos = in.readerIndex();
 
         //Common decoding part
-        PublishMessage message = new PublishMessage();
-        if (!decodeCommonHeader(message, in)) {
-            LOG.debug("decode ask for more data after {}", in);
-            in.resetReaderIndex();
-            return;
-        }
+        DecodedPublishMessage message = new DecodedPublishMessage();
+        decodeCommonHeader(message, firstByte, remainingLength);
         
         if (Utils.isMQTT3_1_1(ctx)) {
             if (message.getQos() == AbstractMessage.QOSType.MOST_ONE && message.isDupFlag()) {
@@ -58,22 +52,22 @@ class PublishDecoder extends DemuxDecoder {
             }
         }
         
-        int remainingLength = message.getRemainingLength();
-        
-        //Topic name
-        String topic = Utils.decodeString(in);
-        if (topic == null) {
-            in.resetReaderIndex();
-            return;
+        //Topic name, checked for wildcards on its bytes and decoded only if not already cached
+        if (in.readableBytes() < 2) {
+            throw new CorruptedFrameException("Received a PUBLISH without topic");
         }
-        //[MQTT-3.3.2-2] The Topic Name in the PUBLISH Packet MUST NOT contain wildcard characters.
-        if (topic.contains("+") || topic.contains("#")) {
-            throw new CorruptedFrameException("Received a PUBLISH with topic containing wild card chars, topic: " + topic);
+        int topicLength = in.readUnsignedShort();
+        if (in.readableBytes() < topicLength) {
+            throw new CorruptedFrameException("Received a PUBLISH with topic longer than the message");
         }
         //check topic is at least one char [MQTT-4.7.3-1]
-        if (topic.length() == 0) {
+        if (topicLength == 0) {
             throw new CorruptedFrameException("Received a PUBLISH with topic without any character");
         }
+        String topic = TopicNameCache.get().topicName(in, in.readerIndex(), topicLength);
+        //not retained, it shares the reference to the inbound buffer held for the payload
+        message.setEncodedTopicName(in.slice(in.readerIndex() - 2, topicLength + 2));
+        in.skipBytes(topicLength);
         
         message.setTopicName(topic);
         
@@ -84,14 +78,12 @@ class PublishDecoder extends DemuxDecoder {
         int stopPos = in.readerIndex();
         
         //read the payload
-        int payloadSize = remainingLength - (stopPos - startPos - 2) + (Utils.numBytesToEncode(remainingLength) - 1);
-        if (in.readableBytes() < payloadSize) {
-            in.resetReaderIndex();
-            return;
+        int payloadSize = remainingLength - (stopPos - startPos);
+        if (payloadSize < 0) {
+            throw new CorruptedFrameException("Received a PUBLISH with variable header longer than the message");
         }
-        ByteBuf bb = Unpooled.buffer(payloadSize);
-        in.readBytes(bb);
-        message.setPayload(bb.nioBuffer());
+        //the payload isn't copied, the message holds a reference to the inbound buffer till it's released
+        message.setPayloadBuffer(in.readSlice(payloadSize).retain());
         
         out.add(message);
     }
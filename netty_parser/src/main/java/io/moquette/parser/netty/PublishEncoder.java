@@ -17,6 +17,7 @@ package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import java.nio.ByteBuffer;
 import io.moquette.parser.proto.messages.AbstractMessage;
 import io.moquette.parser.proto.messages.PublishMessage;
 
@@ -35,33 +36,25 @@ class PublishEncoder extends DemuxEncoder<PublishMessage> {
             throw new IllegalArgumentException("Found a message with empty or null topic name");
         }
         
-        ByteBuf variableHeaderBuff = ctx.alloc().buffer(2);
-        ByteBuf buff = null;
-        try {
-            variableHeaderBuff.writeBytes(Utils.encodeString(message.getTopicName()));
-            if (message.getQos() == AbstractMessage.QOSType.LEAST_ONE || 
-                message.getQos() == AbstractMessage.QOSType.EXACTLY_ONCE ) {
-                if (message.getMessageID() == null) {
-                    throw new IllegalArgumentException("Found a message with QOS 1 or 2 and not MessageID setted");
-                }
-                variableHeaderBuff.writeShort(message.getMessageID());
-            }
-            variableHeaderBuff.writeBytes(message.getPayload());
-            int variableHeaderSize = variableHeaderBuff.readableBytes();
-
-            byte flags = Utils.encodeFlags(message);
+        boolean hasMessageID = message.getQos() == AbstractMessage.QOSType.LEAST_ONE ||
+                message.getQos() == AbstractMessage.QOSType.EXACTLY_ONCE;
+        if (hasMessageID && message.getMessageID() == null) {
+            throw new IllegalArgumentException("Found a message with QOS 1 or 2 and not MessageID setted");
+        }
+        ByteBuffer payload = message.getPayload();
+        int variableHeaderSize = Utils.encodedStringLength(message.getTopicName()) + payload.remaining();
+        if (hasMessageID) {
+            variableHeaderSize += 2;
+        }
 
-            buff = ctx.alloc().buffer(2 + variableHeaderSize);
-            buff.writeByte(AbstractMessage.PUBLISH << 4 | flags);
-            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
-            buff.writeBytes(variableHeaderBuff);
-            out.writeBytes(buff);
-        } finally {
-            variableHeaderBuff.release();
-            if (buff != null) {
-                buff.release();
-            }
+        byte flags = Utils.encodeFlags(message);
+        Utils.writeFixedHeader(out, AbstractMessage.PUBLISH << 4 | flags, variableHeaderSize);
+        Utils.writeString(out, message.getTopicName());
+        if (hasMessageID) {
+            out.writeShort(message.getMessageID());
         }
+        //a duplicate so that the position of the payload isn't moved
+        out.writeBytes(payload.duplicate());
     }
     
 }
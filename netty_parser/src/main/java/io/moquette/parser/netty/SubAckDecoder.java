@@ -17,6 +17,7 @@ package io.moquette.parser.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.AbstractMessage;
 import io.moquette.parser.proto.messages.SubAckMessage;
@@ -28,26 +29,16 @@ import io.moquette.parser.proto.messages.SubAckMessage;
 class SubAckDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        in.resetReaderIndex();
         SubAckMessage message = new SubAckMessage();
-        if (!decodeCommonHeader(message, 0x00, in)) {
-            in.resetReaderIndex();
-            return;
-        }
-        int remainingLength = message.getRemainingLength();
+        decodeCommonHeader(message, 0x00, firstByte, remainingLength);
         
         //MessageID
         message.setMessageID(in.readUnsignedShort());
-        remainingLength -= 2;
         
         //Qos array
-        if (in.readableBytes() < remainingLength ) {
-            in.resetReaderIndex();
-            return;
-        }
-        for (int i = 0; i < remainingLength; i++) {
+        for (int i = 2; i < remainingLength; i++) {
             byte qos = in.readByte();
             message.addType(AbstractMessage.QOSType.valueOf(qos));
         }
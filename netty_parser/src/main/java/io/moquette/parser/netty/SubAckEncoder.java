@@ -34,18 +34,10 @@ class SubAckEncoder extends DemuxEncoder<SubAckMessage> {
         }
 
         int variableHeaderSize = 2 + message.types().size();
-        ByteBuf buff = chc.alloc().buffer(6 + variableHeaderSize);
-        try {
-            buff.writeByte(AbstractMessage.SUBACK << 4 );
-            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
-            buff.writeShort(message.getMessageID());
-            for (QOSType c : message.types()) {
-                buff.writeByte(c.byteValue());
-            }
-
-            out.writeBytes(buff);
-        } finally {
-            buff.release();
+        Utils.writeFixedHeader(out, AbstractMessage.SUBACK << 4, variableHeaderSize);
+        out.writeShort(message.getMessageID());
+        for (QOSType c : message.types()) {
+            out.writeByte(c.byteValue());
         }
     }
     
@@ -30,14 +30,10 @@ import io.moquette.parser.proto.messages.SubscribeMessage;
 class SubscribeDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
         SubscribeMessage message = new SubscribeMessage();
-        in.resetReaderIndex();
-        if (!decodeCommonHeader(message, 0x02, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x02, firstByte, remainingLength);
         
         //check qos level
         if (message.getQos() != QOSType.LEAST_ONE) {
@@ -36,27 +36,17 @@ class SubscribeEncoder extends DemuxEncoder<SubscribeMessage> {
             throw new IllegalArgumentException("Expected a message with QOS 1, found " + message.getQos());
         }
         
-        ByteBuf variableHeaderBuff = chc.alloc().buffer(4);
-        ByteBuf buff = null;
-        try {
-            variableHeaderBuff.writeShort(message.getMessageID());
-            for (SubscribeMessage.Couple c : message.subscriptions()) {
-                variableHeaderBuff.writeBytes(Utils.encodeString(c.topicFilter));
-                variableHeaderBuff.writeByte(c.qos);
-            }
-
-            int variableHeaderSize = variableHeaderBuff.readableBytes();
-            byte flags = Utils.encodeFlags(message);
-            buff = chc.alloc().buffer(2 + variableHeaderSize);
-
-            buff.writeByte(AbstractMessage.SUBSCRIBE << 4 | flags);
-            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
-            buff.writeBytes(variableHeaderBuff);
+        int variableHeaderSize = 2;
+        for (SubscribeMessage.Couple c : message.subscriptions()) {
+            variableHeaderSize += Utils.encodedStringLength(c.topicFilter) + 1;
+        }
 
-            out.writeBytes(buff);
-        } finally {
-             variableHeaderBuff.release();
-             buff.release();
+        byte flags = Utils.encodeFlags(message);
+        Utils.writeFixedHeader(out, AbstractMessage.SUBSCRIBE << 4 | flags, variableHeaderSize);
+        out.writeShort(message.getMessageID());
+        for (SubscribeMessage.Couple c : message.subscriptions()) {
+            Utils.writeString(out, c.topicFilter);
+            out.writeByte(c.qos);
         }
     }
     
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Maps the UTF-8 bytes of the topic names of the PUBLISH messages to the String already decoded and
+ * validated, so that a repeated topic is neither copied nor decoded again.
+ *
+ * Every event loop has its own cache, it's direct mapped: a topic takes the slot of the previous topic with
+ * the same hash.
+ *
+ * @author andrea
+ */
+final class TopicNameCache {
+
+    static final int SLOTS = 1024;
+    //longer topic names are decoded every time
+    static final int MAX_CACHED_LENGTH = 256;
+
+    private static final FastThreadLocal<TopicNameCache> CACHES = new FastThreadLocal<TopicNameCache>() {
+        @Override
+        protected TopicNameCache initialValue() {
+            return new TopicNameCache();
+        }
+    };
+
+    private final byte[][] m_keys = new byte[SLOTS][];
+    private final String[] m_names = new String[SLOTS];
+
+    /**
+     * @return the cache of the current thread.
+     * */
+    static TopicNameCache get() {
+        return CACHES.get();
+    }
+
+    /**
+     * Decode the topic name of length bytes starting at index, the indexes of the buffer aren't changed.
+     *
+     * @throws CorruptedFrameException if the topic name contains wildcards.
+     * */
+    String topicName(ByteBuf in, int index, int length) throws UnsupportedEncodingException {
+        if (length > MAX_CACHED_LENGTH) {
+            return decode(in, index, length);
+        }
+        int slot = hash(in, index, length) & (SLOTS - 1);
+        byte[] key = m_keys[slot];
+        if (key != null && sameBytes(key, in, index, length)) {
+            return m_names[slot];
+        }
+        checkNoWildcards(in, index, length);
+        key = new byte[length];
+        in.getBytes(index, key);
+        String name = new String(key, "UTF-8");
+        m_keys[slot] = key;
+        m_names[slot] = name;
+        return name;
+    }
+
+    private static String decode(ByteBuf in, int index, int length) throws UnsupportedEncodingException {
+        checkNoWildcards(in, index, length);
+        byte[] raw = new byte[length];
+        in.getBytes(index, raw);
+        return new String(raw, "UTF-8");
+    }
+
+    /**
+     * [MQTT-3.3.2-2] The Topic Name in the PUBLISH Packet MUST NOT contain wildcard characters.
+     * The bytes of '+' and '#' aren't part of any other UTF-8 sequence, so they are looked for without decoding.
+     * */
+    private static void checkNoWildcards(ByteBuf in, int index, int length) throws UnsupportedEncodingException {
+        for (int i = index; i < index + length; i++) {
+            byte b = in.getByte(i);
+            if (b == '+' || b == '#') {
+                byte[] raw = new byte[length];
+                in.getBytes(index, raw);
+                throw new CorruptedFrameException("Received a PUBLISH with topic containing wild card chars, topic: "
+                        + new String(raw, "UTF-8"));
+            }
+        }
+    }
+
+    private static int hash(ByteBuf in, int index, int length) {
+        int hash = 1;
+        for (int i = index; i < index + length; i++) {
+            hash = 31 * hash + in.getByte(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameBytes(byte[] key, ByteBuf in, int index, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != in.getByte(index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -28,8 +28,7 @@ class UnsubAckEncoder extends DemuxEncoder<UnsubAckMessage> {
     
     @Override
     protected void encode(ChannelHandlerContext chc, UnsubAckMessage msg, ByteBuf out) {
-        out.writeByte(AbstractMessage.UNSUBACK << 4).
-                writeBytes(Utils.encodeRemainingLength(2)).
-                writeShort(msg.getMessageID());
+        Utils.writeFixedHeader(out, AbstractMessage.UNSUBACK << 4, 2);
+        out.writeShort(msg.getMessageID());
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import io.moquette.parser.proto.messages.UnsubscribeMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.util.AttributeMap;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import io.moquette.parser.proto.messages.AbstractMessage;
 
@@ -29,14 +30,10 @@ import io.moquette.parser.proto.messages.AbstractMessage;
 class UnsubscribeDecoder extends DemuxDecoder {
 
     @Override
-    void decode(AttributeMap ctx, ByteBuf in, List<Object> out) throws Exception {
+    void decodeFrame(AttributeMap ctx, byte firstByte, int remainingLength, ByteBuf in, List<Object> out) throws UnsupportedEncodingException {
         //Common decoding part
-        in.resetReaderIndex();
         UnsubscribeMessage message = new UnsubscribeMessage();
-        if (!decodeCommonHeader(message, 0x02, in)) {
-            in.resetReaderIndex();
-            return;
-        }
+        decodeCommonHeader(message, 0x02, firstByte, remainingLength);
         
         //check qos level
         if (message.getQos() != AbstractMessage.QOSType.LEAST_ONE) {
@@ -37,26 +37,16 @@ class UnsubscribeEncoder extends DemuxEncoder<UnsubscribeMessage> {
             throw new IllegalArgumentException("Expected a message with QOS 1, found " + message.getQos());
         }
         
-        ByteBuf variableHeaderBuff = chc.alloc().buffer(4);
-        ByteBuf buff = null;
-        try {
-            variableHeaderBuff.writeShort(message.getMessageID());
-            for (String topic : message.topicFilters()) {
-                variableHeaderBuff.writeBytes(Utils.encodeString(topic));
-            }
-
-            int variableHeaderSize = variableHeaderBuff.readableBytes();
-            byte flags = Utils.encodeFlags(message);
-            buff = chc.alloc().buffer(2 + variableHeaderSize);
-
-            buff.writeByte(AbstractMessage.UNSUBSCRIBE << 4 | flags);
-            buff.writeBytes(Utils.encodeRemainingLength(variableHeaderSize));
-            buff.writeBytes(variableHeaderBuff);
+        int variableHeaderSize = 2;
+        for (String topic : message.topicFilters()) {
+            variableHeaderSize += Utils.encodedStringLength(topic);
+        }
 
-            out.writeBytes(buff);
-        } finally {
-            variableHeaderBuff.release();
-            buff.release();
+        byte flags = Utils.encodeFlags(message);
+        Utils.writeFixedHeader(out, AbstractMessage.UNSUBSCRIBE << 4 | flags, variableHeaderSize);
+        out.writeShort(message.getMessageID());
+        for (String topic : message.topicFilters()) {
+            Utils.writeString(out, topic);
         }
     }
     
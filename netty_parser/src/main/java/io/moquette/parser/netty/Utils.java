@@ -22,7 +22,6 @@ import io.netty.util.Attribute;
 import io.netty.util.AttributeMap;
 import java.io.UnsupportedEncodingException;
 import io.moquette.parser.proto.messages.AbstractMessage;
-import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -35,34 +34,6 @@ public class Utils {
     public static final byte VERSION_3_1 = 3;
     public static final byte VERSION_3_1_1 = 4;
     
-    static byte readMessageType(ByteBuf in) {
-        byte h1 = in.readByte();
-        byte messageType = (byte) ((h1 & 0x00F0) >> 4);
-        return messageType;
-    }
-    
-    static boolean checkHeaderAvailability(ByteBuf in) {
-        if (in.readableBytes() < 1) {
-            return false;
-        }
-        //byte h1 = in.get();
-        //byte messageType = (byte) ((h1 & 0x00F0) >> 4);
-        in.skipBytes(1); //skip the messageType byte
-        
-        int remainingLength = Utils.decodeRemainingLenght(in);
-        if (remainingLength == -1) {
-            return false;
-        }
-        
-        //check remaining length
-        if (in.readableBytes() < remainingLength) {
-            return false;
-        }
-        
-        //return messageType == type ? MessageDecoderResult.OK : MessageDecoderResult.NOT_OK;
-        return true;
-    }
-    
     /**
      * Decode the variable remaining length as defined in MQTT v3.1 specification 
      * (section 2.1).
@@ -92,11 +63,19 @@ public class Utils {
      *  [0..268435455].
      */
     static ByteBuf encodeRemainingLength(int value) throws CorruptedFrameException {
-        if (value > MAX_LENGTH_LIMIT || value < 0) {
-            throw new CorruptedFrameException("Value should in range 0.." + MAX_LENGTH_LIMIT + " found " + value);
-        }
-
         ByteBuf encoded = Unpooled.buffer(4);
+        writeRemainingLength(encoded, value);
+        return encoded;
+    }
+
+    /**
+     * Write the value in the variable length format of the specification straight into the buffer.
+     *
+     * @throws CorruptedFrameException if the value is not in the specification bounds
+     *  [0..268435455].
+     */
+    static void writeRemainingLength(ByteBuf out, int value) throws CorruptedFrameException {
+        checkRemainingLength(value);
         byte digit;
         do {
             digit = (byte) (value % 128);
@@ -105,9 +84,27 @@ public class Utils {
             if (value > 0) {
                 digit = (byte) (digit | 0x80);
             }
-            encoded.writeByte(digit);
+            out.writeByte(digit);
         } while (value > 0);
-        return encoded;
+    }
+
+    /**
+     * Write the fixed header of a message, first making room in the buffer for the whole message
+     * so that the following writes don't grow it again.
+     *
+     * @param remainingLength the size of the variable header and of the payload.
+     */
+    static void writeFixedHeader(ByteBuf out, int firstByte, int remainingLength) throws CorruptedFrameException {
+        checkRemainingLength(remainingLength);
+        out.ensureWritable(1 + numBytesToEncode(remainingLength) + remainingLength);
+        out.writeByte(firstByte);
+        writeRemainingLength(out, remainingLength);
+    }
+
+    private static void checkRemainingLength(int value) throws CorruptedFrameException {
+        if (value > MAX_LENGTH_LIMIT || value < 0) {
+            throw new CorruptedFrameException("Value should in range 0.." + MAX_LENGTH_LIMIT + " found " + value);
+        }
     }
     
     /**
@@ -142,26 +139,85 @@ public class Utils {
      * string content.
      */
     public static ByteBuf encodeString(String str) {
-        byte[] raw;
-        try {
-            raw = str.getBytes("UTF-8");
-            //NB every Java platform has got UTF-8 encoding by default, so this 
-            //exception are never raised.
-        } catch (UnsupportedEncodingException ex) {
-            LoggerFactory.getLogger(Utils.class).error(null, ex);
-            return null;
-        }
-        return encodeFixedLengthContent(raw);
+        ByteBuf out = Unpooled.buffer(encodedStringLength(str));
+        writeString(out, str);
+        return out;
     }
 
     /**
      * Return the IoBuffer with string encoded as MSB, LSB and bytes array content.
      */
     public static ByteBuf encodeFixedLengthContent(byte[] content) {
-        ByteBuf out = Unpooled.buffer(2);
+        ByteBuf out = Unpooled.buffer(2 + content.length);
+        writeFixedLengthContent(out, content);
+        return out;
+    }
+
+    /**
+     * Write the two bytes of length followed by the content.
+     */
+    static void writeFixedLengthContent(ByteBuf out, byte[] content) {
         out.writeShort(content.length);
         out.writeBytes(content);
-        return out;
+    }
+
+    /**
+     * Write the string as MSB, LSB and UTF-8 encoded content, without the intermediate byte array
+     * of {@link String#getBytes(String)}. The content is the same of getBytes("UTF-8"), an unpaired
+     * surrogate is encoded as '?'.
+     */
+    static void writeString(ByteBuf out, String str) {
+        out.writeShort(utf8Length(str));
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                out.writeByte(c);
+            } else if (c < 0x800) {
+                out.writeByte(0xC0 | (c >> 6));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out.writeByte(0xE0 | (c >> 12));
+                out.writeByte(0x80 | ((c >> 6) & 0x3F));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                out.writeByte(0xF0 | (codePoint >> 18));
+                out.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                out.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                out.writeByte(0x80 | (codePoint & 0x3F));
+            } else {
+                out.writeByte('?');
+            }
+        }
+    }
+
+    /**
+     * Return the number of bytes written by {@link #writeString(ByteBuf, String)}, length field included.
+     */
+    static int encodedStringLength(String str) {
+        return 2 + utf8Length(str);
+    }
+
+    private static int utf8Length(String str) {
+        int len = str.length();
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (!Character.isSurrogate(c)) {
+                size += 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else {
+                size += 1;
+            }
+        }
+        return size;
     }
 
     /**
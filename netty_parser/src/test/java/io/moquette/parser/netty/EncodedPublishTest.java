@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.DefaultAttributeMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import io.moquette.parser.proto.messages.AbstractMessage.QOSType;
+import io.moquette.parser.proto.messages.PublishMessage;
+
+/**
+ *
+ * @author andrea
+ */
+public class EncodedPublishTest {
+    ChannelHandlerContext m_mockedContext = TestUtils.mockChannelHandler();
+
+    @Test
+    public void testEncodesLikeThePublishEncoder() throws Exception {
+        ByteBuffer payload = ByteBuffer.wrap(new byte[]{0x0A, 0x0B, 0x0C});
+        EncodedPublish encoded = new EncodedPublish("/photos", Unpooled.wrappedBuffer(payload));
+
+        for (QOSType qos : new QOSType[]{QOSType.MOST_ONE, QOSType.LEAST_ONE, QOSType.EXACTLY_ONCE}) {
+            PublishMessage msg = new PublishMessage();
+            msg.setQos(qos);
+            msg.setTopicName("/photos");
+            msg.setPayload(payload.duplicate());
+            Integer messageID = null;
+            if (qos != QOSType.MOST_ONE) {
+                messageID = 1;
+                msg.setMessageID(messageID);
+            }
+            ByteBuf expected = Unpooled.buffer();
+            new PublishEncoder().encode(m_mockedContext, msg, expected);
+
+            //Exercise
+            ByteBuf found = encoded.messageFor(qos, messageID).encode();
+
+            //Verify
+            assertEquals(expected, found);
+            found.release();
+        }
+        encoded.release();
+    }
+
+    @Test
+    public void testQueuedMessageOutlivesThePublish() throws Exception {
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[]{0x0A, 0x0B, 0x0C});
+        EncodedPublish encoded = new EncodedPublish("/photos", payload);
+        EncodedPublishMessage queued = encoded.messageFor(QOSType.LEAST_ONE, 7);
+        //the owner of the payload and the publish drop their references
+        payload.release();
+        encoded.release();
+
+        //Exercise
+        ByteBuf found = queued.encode();
+
+        //Verify
+        assertEquals(0x32, found.readByte());
+        //(2+7) topic + 2 messageID + 3 payload
+        assertEquals(14, found.readByte());
+        TestUtils.verifyString("/photos", found);
+        assertEquals(7, found.readShort());
+        TestUtils.verifyBuff(3, new byte[]{0x0A, 0x0B, 0x0C}, found);
+        found.release();
+        assertEquals(0, payload.refCnt());
+    }
+
+    @Test
+    public void testForwardsTheDecodedFrame() throws Exception {
+        //retained QoS 0 publish, forwarded without the retain flag
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(0x31).writeByte(12);
+        Utils.writeString(frame, "/photos");
+        frame.writeBytes(new byte[]{0x0A, 0x0B, 0x0C});
+        List<Object> out = new ArrayList<>();
+        new PublishDecoder().decode(new DefaultAttributeMap(), frame, out);
+        DecodedPublishMessage decoded = (DecodedPublishMessage) out.get(0);
+        EncodedPublish encoded = new EncodedPublish(decoded.getTopicName(), decoded.encodedTopicName(),
+                decoded.payloadBuffer(), MessagesPool.UNPOOLED);
+        decoded.release();
+        frame.release();
+
+        //Exercise
+        ByteBuf found = encoded.messageFor(QOSType.MOST_ONE, null).encode();
+        encoded.release();
+
+        //Verify
+        assertEquals(0x30, found.readByte());
+        assertEquals(12, found.readByte());
+        TestUtils.verifyString("/photos", found);
+        TestUtils.verifyBuff(3, new byte[]{0x0A, 0x0B, 0x0C}, found);
+        found.release();
+        assertEquals(0, frame.refCnt());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEncodeOnlyOnce() {
+        EncodedPublish encoded = new EncodedPublish("/photos", Unpooled.wrappedBuffer(new byte[]{0x0A}));
+        EncodedPublishMessage msg = encoded.messageFor(QOSType.MOST_ONE, null);
+        msg.encode().release();
+
+        //Exercise
+        msg.encode();
+    }
+}
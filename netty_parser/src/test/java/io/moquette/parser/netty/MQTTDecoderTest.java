@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.parser.proto.messages.PingReqMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author andrea
+ */
+public class MQTTDecoderTest {
+
+    EmbeddedChannel m_channel;
+
+    @Before
+    public void setUp() {
+        m_channel = new EmbeddedChannel(new MQTTDecoder());
+    }
+
+    @Test
+    public void testFramesSplitInSingleBytes() {
+        byte[] payload = new byte[200];
+        ByteBuf frames = Unpooled.buffer();
+        frames.writeByte(AbstractMessage.PUBLISH << 4);
+        frames.writeBytes(Utils.encodeRemainingLength(Utils.encodedStringLength("/topic") + payload.length));
+        Utils.writeString(frames, "/topic");
+        frames.writeBytes(payload);
+        frames.writeByte(AbstractMessage.PINGREQ << 4).writeByte(0);
+
+        //Exercise
+        while (frames.isReadable()) {
+            m_channel.writeInbound(frames.readBytes(1));
+        }
+
+        //Verify
+        DecodedPublishMessage publish = (DecodedPublishMessage) m_channel.readInbound();
+        assertEquals("/topic", publish.getTopicName());
+        assertEquals(payload.length, publish.payloadBuffer().readableBytes());
+        publish.release();
+        assertTrue(m_channel.readInbound() instanceof PingReqMessage);
+        assertNull(m_channel.readInbound());
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void testUnknownMessageType() {
+        //Exercise
+        m_channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xF0, 0x00}));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void testTopicDoesntReadIntoTheNextFrame() {
+        ByteBuf frames = Unpooled.buffer();
+        //the topic length claims 6 bytes, but the frame has only 4
+        frames.writeByte(AbstractMessage.PUBLISH << 4).writeByte(6).writeShort(6).writeBytes("/top".getBytes());
+        frames.writeByte(AbstractMessage.PINGREQ << 4).writeByte(0);
+
+        //Exercise
+        m_channel.writeInbound(frames);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void testBytesLeftInTheFrame() {
+        //Exercise
+        m_channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) (AbstractMessage.PINGREQ << 4), 0x02,
+            (byte) (AbstractMessage.PINGREQ << 4), 0x00}));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void testRemainingLengthLongerThan4Bytes() {
+        //Exercise
+        m_channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0x30, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, 0x01}));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012-2015 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * The Apache License v2.0 is available at
+ * http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package io.moquette.parser.netty;
+
+import io.moquette.parser.proto.messages.AbstractMessage;
+import io.moquette.parser.proto.messages.PubAckMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author andrea
+ */
+public class MessagesPoolTest {
+
+    @Test
+    public void testRecycledAckIsReused() {
+        PubAckMessage ack = MessagesPool.POOLED.pubAck();
+        ack.setMessageID(123);
+
+        //Exercise
+        MessagesPool.recycle(ack);
+
+        //Verify
+        PubAckMessage reused = MessagesPool.POOLED.pubAck();
+        assertSame(ack, reused);
+        assertNull(reused.getMessageID());
+    }
+
+    @Test
+    public void testUnpooledAckIsNotReused() {
+        PubAckMessage ack = MessagesPool.UNPOOLED.pubAck();
+
+        //Exercise
+        MessagesPool.recycle(ack);
+
+        //Verify
+        assertNotSame(ack, MessagesPool.UNPOOLED.pubAck());
+    }
+
+    @Test
+    public void testEncodedAckIsRecycled() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MQTTEncoder());
+        PubAckMessage ack = MessagesPool.POOLED.pubAck();
+        ack.setMessageID(123);
+
+        //Exercise
+        channel.writeOutbound(ack);
+
+        //Verify
+        ByteBuf out = (ByteBuf) channel.readOutbound();
+        assertEquals(AbstractMessage.PUBACK << 4, out.readUnsignedByte());
+        assertEquals(2, out.readByte());
+        assertEquals(123, out.readUnsignedShort());
+        out.release();
+        assertSame(ack, MessagesPool.POOLED.pubAck());
+    }
+
+    @Test
+    public void testSharedPingResp() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MQTTEncoder());
+
+        //Exercise
+        channel.writeOutbound(MessagesPool.PINGRESP);
+        channel.writeOutbound(MessagesPool.PINGRESP);
+
+        //Verify
+        for (int i = 0; i < 2; i++) {
+            ByteBuf out = (ByteBuf) channel.readOutbound();
+            assertEquals(AbstractMessage.PINGRESP << 4, out.readUnsignedByte());
+            assertEquals(0, out.readByte());
+            assertFalse(out.isReadable());
+        }
+    }
+}
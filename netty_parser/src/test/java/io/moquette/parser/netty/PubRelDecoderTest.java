@@ -48,7 +48,7 @@ public class PubRelDecoderTest {
     @Test
     public void testValidPurRel() throws Exception {
         m_buff = Unpooled.buffer(4);
-        m_buff.clear().writeByte(AbstractMessage.PUBREL << 4 | 0x02).writeByte(4);
+        m_buff.clear().writeByte(AbstractMessage.PUBREL << 4 | 0x02).writeByte(2);
         m_buff.writeShort(MESSAGE_ID);  //fake message_id
         
         List<Object> results = new ArrayList<Object>();
@@ -64,7 +64,7 @@ public class PubRelDecoderTest {
     @Test(expected = CorruptedFrameException.class)
     public void testInvalidPurRel_badReservedFlags() throws Exception {
         m_buff = Unpooled.buffer(4);
-        m_buff.clear().writeByte(AbstractMessage.PUBREL << 4 | 0x03).writeByte(4);
+        m_buff.clear().writeByte(AbstractMessage.PUBREL << 4 | 0x03).writeByte(2);
         m_buff.writeShort(MESSAGE_ID);  //fake message_id
         
         List<Object> results = new ArrayList<Object>();
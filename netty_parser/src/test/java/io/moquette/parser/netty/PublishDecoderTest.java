@@ -30,6 +30,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -103,6 +104,23 @@ public class PublishDecoderTest {
         assertEquals(payload, message.getPayload());
     }
     
+    @Test
+    public void testPayloadIsASliceOfTheInboundBuffer() throws Exception {
+        m_buff = Unpooled.buffer(14);
+        initHeaderWithMessageID_Payload(m_buff, MESSAGE_ID, new byte[]{0x0A, 0x0B, 0x0C});
+
+        //Exercise
+        m_msgdec.decode(m_attrMap, m_buff, m_results);
+
+        //Verify
+        DecodedPublishMessage message = (DecodedPublishMessage) m_results.get(0);
+        assertEquals(2, m_buff.refCnt());
+        m_buff.setByte(m_buff.writerIndex() - 1, 0x0D);
+        assertEquals(0x0D, message.payloadBuffer().getByte(2));
+        message.release();
+        assertEquals(1, m_buff.refCnt());
+    }
+
     @Test(expected = CorruptedFrameException.class)
     public void testDup0WithQoS0_3_1_1() throws Exception {
          m_buff = preparePubclishWithQosFlags((byte) 0x08);
@@ -199,6 +217,22 @@ public class PublishDecoderTest {
         assertEquals(expectedPayload, message.getPayload());
     }
 
+    @Test
+    public void testRepeatedTopicNameIsCached() throws Exception {
+        ByteBuf first = generatePublishQoS0(TestUtils.generateRandomPayload(10));
+        ByteBuf second = generatePublishQoS0(TestUtils.generateRandomPayload(10));
+
+        //Exercise
+        m_msgdec.decode(m_attrMap, first, m_results);
+        m_msgdec.decode(m_attrMap, second, m_results);
+
+        //Verify
+        assertEquals(2, m_results.size());
+        String firstTopic = ((PublishMessage) m_results.get(0)).getTopicName();
+        assertEquals("/topic", firstTopic);
+        assertSame(firstTopic, ((PublishMessage) m_results.get(1)).getTopicName());
+    }
+
     /*
      * Check topic is at least one char [MQTT-4.7.3-1]
      * */
@@ -21,6 +21,8 @@ import io.netty.handler.codec.CorruptedFrameException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.UnsupportedEncodingException;
+
 import static io.moquette.parser.netty.TestUtils.verifyBuff;
 import static org.junit.Assert.*;
 
@@ -98,6 +100,22 @@ public class UtilsTest {
         verifyBuff(4, new byte[]{(byte)0xFF, (byte)0xFF, (byte)0xFF, 0x7F}, Utils.encodeRemainingLength(268435455));
     }
     
+    @Test
+    public void testWriteStringAsGetBytes() throws UnsupportedEncodingException {
+        String[] strings = {"", "/photos", "caf\u00e9/\u20ac", "smile\uD83D\uDE00", "unpaired\uD83D"};
+        for (String str : strings) {
+            ByteBuf written = Unpooled.buffer();
+
+            //Exercise
+            Utils.writeString(written, str);
+
+            //Verify
+            assertEquals(Utils.encodeFixedLengthContent(str.getBytes("UTF-8")), written);
+            assertEquals(written.readableBytes(), Utils.encodedStringLength(str));
+            assertEquals(written, Utils.encodeString(str));
+        }
+    }
+
     @Test
     public void testEncodeFlags() {
         UnsubscribeMessage msg = new UnsubscribeMessage();